@@ -0,0 +1,149 @@
+package codegen;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/*
+ * The parameters and the source listing the goals share.
+ */
+public abstract class AbstractCodeGenMojo extends AbstractMojo {
+
+	@Parameter(property = "configFile")
+	protected File configFile;
+
+	/*
+	 * Merged after configFile in the order listed, a later file takes precedence where two configure the same class,
+	 * field or method.
+	 */
+	@Parameter
+	protected List<File> configFiles;
+
+	@Parameter(defaultValue = "${project.build.directory}/generated-sources/")
+	protected File srcDirectory;
+
+	@Parameter(property = "parallelism", defaultValue = "1")
+	private int parallelism;
+
+	@Parameter(property = "executionMode", defaultValue = "FORK_JOIN")
+	private ExecutionMode executionMode;
+
+	@Parameter(property = "costHistoryFile", defaultValue = "${project.build.directory}/codegen/file-costs.properties")
+	private File costHistoryFile;
+
+	@Parameter(property = "targeted", defaultValue = "false")
+	protected boolean targeted;
+
+	@Parameter(property = "writeMode", defaultValue = "REPRINT")
+	private WriteMode writeMode;
+
+	@Parameter(property = "engine", defaultValue = "AST")
+	private Engine engine;
+
+	@Parameter(property = "mergeStrategy", defaultValue = "REPLACE")
+	private MergeStrategy mergeStrategy;
+
+	/*
+	 * Where the compiled configuration is kept between builds.
+	 */
+	@Parameter(property = "configSnapshotDirectory", defaultValue = "${project.build.directory}/codegen")
+	private File configSnapshotDirectory;
+
+	protected void checkSourceDirectory() throws MojoExecutionException {
+		if (!srcDirectory.exists()) {
+			throw new MojoExecutionException(String.format("%s does not exist", srcDirectory.getName()));
+		}
+
+		if (!srcDirectory.isDirectory()) {
+			throw new MojoExecutionException(String.format("%s is not a directory", srcDirectory.getName()));
+		}
+	}
+
+	protected CodeGenerator createGenerator() throws MojoFailureException {
+		return createGenerator(configSnapshotDirectory);
+	}
+
+	/*
+	 * A generator that neither reads nor writes a configuration snapshot when snapshotDirectory is null.
+	 */
+	protected CodeGenerator createGenerator(final File snapshotDirectory) throws MojoFailureException {
+		final List<File> files = getConfigFiles();
+		if (files.isEmpty()) {
+			throw new MojoFailureException("Neither configFile nor configFiles is set");
+		}
+		try {
+			return new CodeGenerator(files, snapshotDirectory);
+		} catch (final Exception e) {
+			throw new MojoFailureException("Couldn't read config files " + files, e);
+		}
+	}
+
+	protected List<File> getConfigFiles() {
+		final List<File> files = new ArrayList<File>();
+		if (configFile != null) {
+			files.add(configFile);
+		}
+		if (configFiles != null) {
+			files.addAll(configFiles);
+		}
+		return files;
+	}
+
+	protected void configure(final CodeGenerator generator) {
+		generator.setParallelism(parallelism);
+		generator.setExecutionMode(executionMode);
+		generator.setWriteMode(writeMode);
+		if (engine == Engine.LEXER && writeMode == WriteMode.REPRINT) {
+			getLog().info("The LEXER engine only patches text, writing in SPLICE mode");
+		}
+		// after the write mode, the LEXER engine switches it to SPLICE
+		generator.setEngine(engine);
+		generator.setMergeStrategy(mergeStrategy);
+		generator.setCostHistory(costHistoryFile);
+	}
+
+	protected List<File> listTargetFiles(final CodeGenerator generator) {
+		final TargetFiles targets = generator.findTargets(srcDirectory);
+		for (String missing : targets.getMissing()) {
+			getLog().warn("No source file for configured class " + missing + " in " + srcDirectory);
+		}
+		for (File file : targets.getFiles()) {
+			getLog().debug("Adding file to content " + file);
+		}
+		return targets.getFiles();
+	}
+
+	protected List<File> listFilesForFolder(File srcDirectory2) {
+		List<File> files = new ArrayList<File>();
+		for (File file : srcDirectory2.listFiles(getFileFilter())) {
+			if (file.isDirectory()) {
+				files.addAll(listFilesForFolder(file));
+			} else {
+				getLog().debug("Adding file to content " + file);
+				files.add(file);
+			}
+		}
+		return files;
+	}
+
+	private FileFilter getFileFilter() {
+		return new FileFilter() {
+			@Override
+			public boolean accept(File pathname) {
+				if (pathname.isDirectory()) {
+					return true;
+				}
+				if (pathname.getName().endsWith(".java")) {
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+}
@@ -0,0 +1,44 @@
+package codegen;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+
+/*
+ * Fails the build when running codegen would change any source, for a CI gate that the sources are annotated already.
+ * Runs the same engine as the codegen goal but writes nothing, not even a configuration snapshot.
+ */
+@Mojo(name = "check", defaultPhase = LifecyclePhase.PROCESS_SOURCES)
+public class CodeGenCheckMojo extends AbstractCodeGenMojo {
+
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		getLog().info("Checking CodeGen...");
+		checkSourceDirectory();
+		final CodeGenerator generator = createGenerator(null);
+		final List<File> files = targeted ? listTargetFiles(generator) : listFilesForFolder(srcDirectory);
+		final List<FileResult> pending;
+		try {
+			configure(generator);
+			pending = generator.check(files);
+		} catch (final ParseExceptions pe) {
+			throw new MojoFailureException("Couldn't parse files: " + pe.getExceptions(), pe);
+		} catch (final Exception e) {
+			throw new MojoFailureException("Couldn't check files", e);
+		}
+		if (pending.isEmpty()) {
+			getLog().info("All " + files.size() + " files are up to date");
+			return;
+		}
+		for (FileResult result : pending) {
+			getLog().error("Would change " + result.getFile());
+			for (String declaration : result.getChanges()) {
+				getLog().error("    " + declaration);
+			}
+		}
+		throw new MojoFailureException(pending.size() + " files would be changed by codegen");
+	}
+}
@@ -1,64 +1,123 @@
 package codegen;
 
 import java.io.File;
-import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 
-import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
 import org.sonatype.plexus.build.incremental.BuildContext;
 
 @Mojo(name = "codegen", defaultPhase = LifecyclePhase.GENERATE_SOURCES)
-public class CodeGenMojo extends AbstractMojo {
+public class CodeGenMojo extends AbstractCodeGenMojo {
 
 	@Component
 	private BuildContext context;
 
-	@Parameter(property = "configFile", required = true)
-	private File configFile;
+	@Parameter(defaultValue = "${project}", readonly = true, required = true)
+	private MavenProject project;
 
-	@Parameter(defaultValue = "${project.build.directory}/generated-sources/")
-	private File srcDirectory;
+	@Parameter(property = "batchCommit", defaultValue = "false")
+	private boolean batchCommit;
+
+	@Parameter(property = "outputDirectory")
+	private File outputDirectory;
 
 	public void execute() throws MojoExecutionException, MojoFailureException {
 		getLog().info("Running CodeGen...");
-		if (!srcDirectory.exists()) {
-			throw new MojoExecutionException(String.format("%s does not exist", srcDirectory.getName()));
-		}
-
-		if (!srcDirectory.isDirectory()) {
-			throw new MojoExecutionException(String.format("%s is not a directory", srcDirectory.getName()));
+		checkSourceDirectory();
+		final CodeGenerator generator = createGenerator();
+		if (outputDirectory != null) {
+			useOutputDirectory(generator);
 		}
-		final List<File> files = listFilesForFolder(srcDirectory);
+		final List<File> files = targeted && outputDirectory == null ? listTargetFiles(generator)
+				: listFilesForFolder(srcDirectory);
 		final List<File> filesForProcessing = getFilesForProcessing(files);
 		if (filesForProcessing.isEmpty()) {
+			if (outputDirectory != null) {
+				pruneOutput(generator);
+			}
 			getLog().info("No files have changed! Not processing...");
 			return;
 		}
-		List<File> parsed;
 		try {
-			final CodeGenerator generator = new CodeGenerator(configFile);
-			parsed = generator.parse(filesForProcessing);
+			configure(generator);
+			generator.setBatchCommit(batchCommit);
+			generator.parse(filesForProcessing, new FileResultListener() {
+				@Override
+				public void onResult(final FileResult result) {
+					printParsedFile(result);
+				}
+			});
+			if (outputDirectory != null) {
+				context.refresh(outputDirectory);
+			}
 		} catch (final ParseExceptions pe) {
 			throw new MojoFailureException("Couldn't parse files: " + pe.getExceptions(), pe);
 		} catch (final Exception e) {
 			throw new MojoFailureException("Couldn't process files", e);
 		}
-		printParsedFiles(parsed);
+	}
+
+	/*
+	 * The output replaces the sources as compile source root, both would declare the same classes. That goes for the
+	 * roots other generators registered below the sources as well, like generated-sources/xjc, as they are mirrored
+	 * too.
+	 */
+	private void useOutputDirectory(final CodeGenerator generator) throws MojoExecutionException {
+		try {
+			generator.setOutputDirectory(srcDirectory, outputDirectory);
+		} catch (final IllegalArgumentException e) {
+			throw new MojoExecutionException(e.getMessage(), e);
+		}
+		if (targeted) {
+			getLog().warn("targeted is ignored when writing to " + outputDirectory + ", every file is mirrored");
+		}
+		final Path sources = normalize(srcDirectory);
+		for (Iterator<String> roots = project.getCompileSourceRoots().iterator(); roots.hasNext();) {
+			if (normalize(new File(roots.next())).startsWith(sources)) {
+				roots.remove();
+			}
+		}
+		project.addCompileSourceRoot(outputDirectory.getAbsolutePath());
+	}
+
+	private Path normalize(final File file) {
+		final File absolute = file.isAbsolute() || project.getBasedir() == null ? file
+				: new File(project.getBasedir(), file.getPath());
+		return absolute.toPath().toAbsolutePath().normalize();
+	}
+
+	/*
+	 * A build whose only change is a deleted source has nothing to process but still an output to remove.
+	 */
+	private void pruneOutput(final CodeGenerator generator) throws MojoFailureException {
+		try {
+			final int pruned = generator.pruneOutput();
+			if (pruned > 0) {
+				getLog().info("Removed " + pruned + " files without a source from " + outputDirectory);
+				context.refresh(outputDirectory);
+			}
+		} catch (final IOException e) {
+			throw new MojoFailureException("Couldn't prune " + outputDirectory, e);
+		}
 	}
 
 	private List<File> getFilesForProcessing(List<File> files) {
 		final List<File> filesForProcessing = new ArrayList<File>();
 		if (context.isIncremental()) {
-			if (context.hasDelta(configFile)) {
-				getLog().info("Config file " + configFile + " has been changed, refreshing files...");
+			final File changedConfig = changedConfigFile();
+			if (changedConfig != null) {
+				getLog().info("Config file " + changedConfig + " has been changed, refreshing files...");
 				filesForProcessing.addAll(listFiles(files));
 			} else {
 				filesForProcessing.addAll(filterFilesOnBuildContext(files));
@@ -70,6 +129,15 @@ public class CodeGenMojo extends AbstractMojo {
 		return filesForProcessing;
 	}
 
+	private File changedConfigFile() {
+		for (File file : getConfigFiles()) {
+			if (context.hasDelta(file)) {
+				return file;
+			}
+		}
+		return null;
+	}
+
 	private Collection<? extends File> listFiles(List<File> files) {
 		for (File file : files) {
 			getLog().info("Processing " + file);
@@ -77,10 +145,10 @@ public class CodeGenMojo extends AbstractMojo {
 		return files;
 	}
 
-	private void printParsedFiles(List<File> parsed) {
-		for (File file : parsed) {
-			getLog().info("Processed " + file);
-			context.refresh(file);
+	private synchronized void printParsedFile(FileResult result) {
+		if (result.hasChanged()) {
+			getLog().info("Processed " + result.getFile());
+			context.refresh(result.getFile());
 		}
 	}
 
@@ -94,33 +162,4 @@ public class CodeGenMojo extends AbstractMojo {
 		}
 		return filesForProcessing;
 	}
-
-	private List<File> listFilesForFolder(File srcDirectory2) {
-		List<File> files = new ArrayList<File>();
-		for (File file : srcDirectory2.listFiles(getFileFilter())) {
-			if (file.isDirectory()) {
-				files.addAll(listFilesForFolder(file));
-			} else {
-				getLog().debug("Adding file to content " + file);
-				files.add(file);
-			}
-		}
-		return files;
-	}
-
-	private FileFilter getFileFilter() {
-		return new FileFilter() {
-			@Override
-			public boolean accept(File pathname) {
-				if (pathname.isDirectory()) {
-					return true;
-				}
-				if (pathname.getName().endsWith(".java")) {
-					return true;
-				}
-				return false;
-			}
-		};
-	}
-
 }
@@ -0,0 +1,26 @@
+package codegen;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+
+import com.github.javaparser.ParseException;
+
+/*
+ * Fails the build on an annotation in the configuration that doesn't parse. The other goals only parse the annotations
+ * their sources reach, so a mistake in the configuration of a class no module has yet goes unnoticed there.
+ */
+@Mojo(name = "validate", defaultPhase = LifecyclePhase.VALIDATE)
+public class CodeGenValidateMojo extends AbstractCodeGenMojo {
+
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		getLog().info("Validating CodeGen configuration " + getConfigFiles());
+		final CodeGenerator generator = createGenerator();
+		try {
+			generator.validateConfiguration();
+		} catch (final ParseException e) {
+			throw new MojoFailureException(e.getMessage(), e);
+		}
+	}
+}
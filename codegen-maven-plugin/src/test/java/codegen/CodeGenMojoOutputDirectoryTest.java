@@ -0,0 +1,93 @@
+package codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.ReflectionUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonatype.plexus.build.incremental.BuildContext;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+public class CodeGenMojoOutputDirectoryTest {
+
+	private static final String SOURCE = "package codegen;\n\npublic class %s {\n}\n";
+
+	private final File root = new File("target/test/mojo").getAbsoluteFile();
+	private final File sources = new File(root, "generated-sources");
+	private final File output = new File(root, "codegen-output");
+	private MavenProject project;
+
+	@Before
+	public void setup() throws IOException {
+		FileUtils.deleteDirectory(root);
+		write(new File(sources, "codegen/TestClass.java"), String.format(SOURCE, "TestClass"));
+		write(new File(sources, "xjc/codegen/Generated.java"), String.format(SOURCE, "Generated"));
+		write(new File(root, "cfg.json"), "{\"classes\":{\"codegen.TestClass\":{\"classAnnotations\":[\"@Deprecated\"]}}}");
+		project = new MavenProject();
+		project.addCompileSourceRoot(new File(root, "src/main/java").getPath());
+		project.addCompileSourceRoot(sources.getPath() + File.separator);
+		project.addCompileSourceRoot(new File(sources, "xjc").getPath());
+		project.addCompileSourceRoot(new File(root, "generated-sources-other").getPath());
+	}
+
+	@Test
+	public void testSourceRootsBelowTheSourcesAreReplacedByTheOutput() throws Exception {
+		mojo(new DefaultBuildContext()).execute();
+
+		assertEquals(Arrays.asList(new File(root, "src/main/java").getPath(),
+				new File(root, "generated-sources-other").getPath(), output.getPath()),
+				project.getCompileSourceRoots());
+		assertTrue(new File(output, "xjc/codegen/Generated.java").isFile());
+	}
+
+	@Test
+	public void testDeletedSourceIsPrunedWhenNothingElseChanged() throws Exception {
+		mojo(new DefaultBuildContext()).execute();
+		assertTrue(new File(sources, "xjc/codegen/Generated.java").delete());
+
+		mojo(new DefaultBuildContext() {
+			@Override
+			public boolean isIncremental() {
+				return true;
+			}
+
+			@Override
+			public boolean hasDelta(final File file) {
+				return false;
+			}
+		}).execute();
+
+		assertFalse(new File(output, "xjc/codegen/Generated.java").exists());
+		assertTrue(new File(output, "codegen/TestClass.java").isFile());
+	}
+
+	private CodeGenMojo mojo(final BuildContext context) throws IllegalAccessException {
+		final CodeGenMojo mojo = new CodeGenMojo();
+		ReflectionUtils.setVariableValueInObject(mojo, "context", context);
+		ReflectionUtils.setVariableValueInObject(mojo, "project", project);
+		ReflectionUtils.setVariableValueInObject(mojo, "outputDirectory", output);
+		ReflectionUtils.setVariableValueInObject(mojo, "configFile", new File(root, "cfg.json"));
+		ReflectionUtils.setVariableValueInObject(mojo, "srcDirectory", sources);
+		ReflectionUtils.setVariableValueInObject(mojo, "parallelism", 1);
+		ReflectionUtils.setVariableValueInObject(mojo, "executionMode", ExecutionMode.FORK_JOIN);
+		ReflectionUtils.setVariableValueInObject(mojo, "writeMode", WriteMode.REPRINT);
+		ReflectionUtils.setVariableValueInObject(mojo, "engine", Engine.AST);
+		ReflectionUtils.setVariableValueInObject(mojo, "mergeStrategy", MergeStrategy.REPLACE);
+		return mojo;
+	}
+
+	private static void write(final File file, final String content) throws IOException {
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), content.getBytes(Charset.forName("UTF-8")));
+	}
+}
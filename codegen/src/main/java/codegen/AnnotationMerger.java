@@ -0,0 +1,329 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.github.javaparser.ASTHelper;
+import com.github.javaparser.ast.expr.AnnotationExpr;
+import com.github.javaparser.ast.expr.Expression;
+import com.github.javaparser.ast.expr.MarkerAnnotationExpr;
+import com.github.javaparser.ast.expr.MemberValuePair;
+import com.github.javaparser.ast.expr.NameExpr;
+import com.github.javaparser.ast.expr.NormalAnnotationExpr;
+import com.github.javaparser.ast.expr.SingleMemberAnnotationExpr;
+
+/*
+ * Merges configured annotations into the annotations of one declaration after another of a single file, for both
+ * engines.
+ *
+ * Annotations are matched by type. A name is resolved against the single type imports of the file, so @NotNull with
+ * an import of javax.validation.constraints.NotNull is the same type as @javax.validation.constraints.NotNull. A
+ * simple name that no single type import resolves comes from the same package, java.lang or an on demand import. It
+ * matches an annotation with the same simple name from one of those packages only, so @NotNull under an import of
+ * lombok.* is not @javax.validation.constraints.NotNull. A file without on demand imports leaves nothing to tell
+ * them apart and the simple name matches any annotation with that name.
+ *
+ * Every annotation is looked at once: the existing ones are indexed by type and each configured one is either added,
+ * left out or replaces the one it matches. A replaced annotation is removed and the replacement goes last, where the
+ * added ones go.
+ */
+class AnnotationMerger {
+
+	private static final String VALUE = "value";
+
+	private final MergeStrategy strategy;
+	private final Map<String, String> imports = new HashMap<String, String>();
+	private final Set<String> onDemand = new HashSet<String>();
+	private String packageName = "";
+
+	AnnotationMerger(final MergeStrategy strategy) {
+		Utils.assertParamNotNull(strategy, "strategy");
+		this.strategy = strategy;
+	}
+
+	/*
+	 * Adds a single type import of the file, static imports resolve nothing.
+	 */
+	void addImport(final String qualifiedName) {
+		imports.put(simpleName(qualifiedName), qualifiedName);
+	}
+
+	/*
+	 * Adds the package of an on demand import of the file, for import javax.validation.constraints.* that is
+	 * javax.validation.constraints.
+	 */
+	void addOnDemandImport(final String packageName) {
+		onDemand.add(packageName);
+	}
+
+	/*
+	 * The package of the file, null or empty for the default package.
+	 */
+	void setPackage(final String packageName) {
+		this.packageName = packageName != null ? packageName : "";
+	}
+
+	/*
+	 * The annotation type as written.
+	 */
+	static String name(final AnnotationExpr annotation) {
+		return annotation.getName().toString();
+	}
+
+	/*
+	 * The type a name written in the file stands for, as far as the imports tell.
+	 */
+	String resolve(final String name) {
+		final int dot = name.indexOf('.');
+		final String imported = imports.get(dot < 0 ? name : name.substring(0, dot));
+		if (imported == null) {
+			return name;
+		}
+		return dot < 0 ? imported : imported + name.substring(dot);
+	}
+
+	/*
+	 * Null when an existing annotation can't be read, the caller then can't merge into this declaration.
+	 */
+	Plan merge(final List<String> existingNames, final Existing existing, final List<AnnotationExpr> configured) {
+		final Index index = new Index(existingNames.size(), configured.size());
+		for (String name : existingNames) {
+			index.add(resolve(name));
+		}
+		boolean changed = false;
+		for (AnnotationExpr annotation : configured) {
+			final String type = resolve(name(annotation));
+			final int position = index.find(type);
+			AnnotationExpr result = annotation;
+			if (position >= 0) {
+				final AnnotationExpr added = index.added(position);
+				if (strategy == MergeStrategy.KEEP_EXISTING) {
+					continue;
+				} else if (strategy == MergeStrategy.REPLACE) {
+					if (added != null ? annotation.equals(added)
+							: existing.isSame(position, writtenAs(annotation, existingNames.get(position)))) {
+						continue;
+					}
+				} else {
+					final AnnotationExpr current = added != null ? added : existing.tree(position);
+					if (current == null) {
+						return null;
+					}
+					result = mergeAttributes(current, annotation);
+					if (result.equals(current)) {
+						continue;
+					}
+				}
+				index.remove(position);
+			}
+			index.add(type, result);
+			changed = true;
+		}
+		return changed ? index.plan() : Plan.NONE;
+	}
+
+	/*
+	 * The existing annotation with the attributes of the configured one on top, named as it is written in the file.
+	 */
+	static AnnotationExpr mergeAttributes(final AnnotationExpr existing, final AnnotationExpr configured) {
+		final Map<String, Expression> pairs = new LinkedHashMap<String, Expression>();
+		addPairs(pairs, existing);
+		addPairs(pairs, configured);
+		final NameExpr name = (NameExpr) existing.getName().clone();
+		if (pairs.isEmpty()) {
+			return new MarkerAnnotationExpr(name);
+		}
+		if (pairs.size() == 1 && pairs.containsKey(VALUE) && (existing instanceof SingleMemberAnnotationExpr
+				|| configured instanceof SingleMemberAnnotationExpr)) {
+			return new SingleMemberAnnotationExpr(name, (Expression) pairs.get(VALUE).clone());
+		}
+		final List<MemberValuePair> members = new ArrayList<MemberValuePair>(pairs.size());
+		for (Map.Entry<String, Expression> pair : pairs.entrySet()) {
+			members.add(new MemberValuePair(pair.getKey(), (Expression) pair.getValue().clone()));
+		}
+		return new NormalAnnotationExpr(name, members);
+	}
+
+	/*
+	 * The configured annotation named as the existing one of the same type is written, so that only the attributes
+	 * tell them apart.
+	 */
+	private static AnnotationExpr writtenAs(final AnnotationExpr configured, final String name) {
+		if (name(configured).equals(name)) {
+			return configured;
+		}
+		final AnnotationExpr renamed = (AnnotationExpr) configured.clone();
+		renamed.setName(ASTHelper.createNameExpr(name));
+		return renamed;
+	}
+
+	private static void addPairs(final Map<String, Expression> pairs, final AnnotationExpr annotation) {
+		if (annotation instanceof SingleMemberAnnotationExpr) {
+			pairs.put(VALUE, ((SingleMemberAnnotationExpr) annotation).getMemberValue());
+		} else if (annotation instanceof NormalAnnotationExpr) {
+			final List<MemberValuePair> members = ((NormalAnnotationExpr) annotation).getPairs();
+			for (MemberValuePair pair : members == null ? Collections.<MemberValuePair> emptyList() : members) {
+				pairs.put(pair.getName(), pair.getValue());
+			}
+		}
+	}
+
+	private static String simpleName(final String name) {
+		return name.substring(name.lastIndexOf('.') + 1);
+	}
+
+	/*
+	 * Whether a simple name no single type import resolves can stand for the qualified type.
+	 */
+	private boolean mayBe(final String qualifiedType) {
+		if (onDemand.isEmpty()) {
+			return true;
+		}
+		final int dot = qualifiedType.lastIndexOf('.');
+		final String typePackage = qualifiedType.substring(0, dot);
+		return onDemand.contains(typePackage) || typePackage.equals(packageName) || typePackage.equals("java.lang");
+	}
+
+	/*
+	 * The annotations a declaration already has, by their position in it.
+	 */
+	abstract static class Existing {
+
+		/*
+		 * Null if the annotation can't be read.
+		 */
+		abstract AnnotationExpr tree(int position);
+
+		boolean isSame(final int position, final AnnotationExpr configured) {
+			return configured.equals(tree(position));
+		}
+	}
+
+	/*
+	 * Which existing annotations go and which go last, in order.
+	 */
+	static class Plan {
+		static final Plan NONE = new Plan(new boolean[0], Collections.<AnnotationExpr> emptyList());
+
+		private final boolean[] removed;
+		private final List<AnnotationExpr> added;
+
+		private Plan(final boolean[] removed, final List<AnnotationExpr> added) {
+			this.removed = removed;
+			this.added = added;
+		}
+
+		boolean isEmpty() {
+			return this == NONE;
+		}
+
+		boolean isRemoved(final int position) {
+			return removed[position];
+		}
+
+		/*
+		 * The configured annotations as they are shared by the configuration, or merged trees.
+		 */
+		List<AnnotationExpr> getAdded() {
+			return added;
+		}
+	}
+
+	/*
+	 * The existing annotations followed by the added ones, by type and by simple name. A removed position stays in the
+	 * maps, looking it up finds nothing.
+	 */
+	private class Index {
+		private final int existing;
+		private final boolean[] removed;
+		private final List<String> types;
+		private final List<AnnotationExpr> added;
+		private final Map<String, Integer> byType = new HashMap<String, Integer>();
+		private final Map<String, Integer> bySimpleName = new HashMap<String, Integer>();
+
+		Index(final int existing, final int configured) {
+			this.existing = existing;
+			this.removed = new boolean[existing];
+			this.types = new ArrayList<String>(existing + configured);
+			this.added = new ArrayList<AnnotationExpr>(configured);
+		}
+
+		void add(final String type) {
+			final Integer position = types.size();
+			types.add(type);
+			byType.put(type, position);
+			bySimpleName.put(simpleName(type), position);
+		}
+
+		void add(final String type, final AnnotationExpr annotation) {
+			add(type);
+			added.add(annotation);
+		}
+
+		int find(final String type) {
+			final Integer position = byType.get(type);
+			if (position != null && !isRemoved(position)) {
+				return position;
+			}
+			final Integer similar = bySimpleName.get(simpleName(type));
+			if (similar == null || isRemoved(similar)) {
+				return -1;
+			}
+			final String other = types.get(similar);
+			if (type.indexOf('.') < 0 ? other.indexOf('.') < 0 || mayBe(other) : other.indexOf('.') < 0 && mayBe(type)) {
+				return similar;
+			}
+			return -1;
+		}
+
+		/*
+		 * The annotation added at position, null for an existing one.
+		 */
+		AnnotationExpr added(final int position) {
+			return position < existing ? null : added.get(position - existing);
+		}
+
+		void remove(final int position) {
+			if (position < existing) {
+				removed[position] = true;
+			} else {
+				added.set(position - existing, null);
+			}
+		}
+
+		private boolean isRemoved(final int position) {
+			return position < existing ? removed[position] : added.get(position - existing) == null;
+		}
+
+		Plan plan() {
+			final List<AnnotationExpr> remaining = new ArrayList<AnnotationExpr>(added.size());
+			for (AnnotationExpr annotation : added) {
+				if (annotation != null) {
+					remaining.add(annotation);
+				}
+			}
+			return new Plan(removed, remaining);
+		}
+	}
+}
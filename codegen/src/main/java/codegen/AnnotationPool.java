@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseException;
+import com.github.javaparser.ast.expr.AnnotationExpr;
+
+/*
+ * Shares the compiled annotations of a configuration. Big configurations list the same few annotations for thousands
+ * of fields and methods, the pool compiles each distinct list once, parses each distinct annotation once and keeps one
+ * tree for annotations that only differ in how they are written. The lists it is given are shared by the
+ * SourceInterner while loading, the pool only lives on for compiling them when they are first used.
+ *
+ * The trees handed out are shared by every member configured with them and must not be changed or attached to a
+ * compilation unit, whoever inserts one clones it. Two threads compiling the same list at once may both parse it,
+ * only one of the results is kept.
+ */
+final class AnnotationPool {
+
+	private final ConcurrentMap<List<String>, List<AnnotationExpr>> compiled = new ConcurrentHashMap<List<String>, List<AnnotationExpr>>();
+	private final ConcurrentMap<String, AnnotationExpr> bySource = new ConcurrentHashMap<String, AnnotationExpr>();
+	/* keyed by the tree itself, a tree compares and hashes by its content and keeps no printed copy alive */
+	private final ConcurrentMap<AnnotationExpr, AnnotationExpr> byTree = new ConcurrentHashMap<AnnotationExpr, AnnotationExpr>();
+
+	List<AnnotationExpr> compile(final List<String> list) throws ParseException {
+		final List<AnnotationExpr> shared = compiled.get(list);
+		if (shared != null) {
+			return shared;
+		}
+		final List<AnnotationExpr> annotations = new ArrayList<AnnotationExpr>(list.size());
+		for (String source : list) {
+			annotations.add(parse(source));
+		}
+		return share(compiled, list, Collections.unmodifiableList(annotations));
+	}
+
+	AnnotationExpr parse(final String source) throws ParseException {
+		final AnnotationExpr shared = bySource.get(source);
+		if (shared != null) {
+			return shared;
+		}
+		final AnnotationExpr annotation;
+		try {
+			annotation = JavaParser.parseAnnotation(source);
+		} catch (ParseException e) {
+			throw new ParseException(source + ": " + e.getMessage());
+		}
+		return share(bySource, source, share(byTree, annotation, annotation));
+	}
+
+	private static <K, V> V share(final ConcurrentMap<K, V> map, final K key, final V value) {
+		final V existing = map.putIfAbsent(key, value);
+		return existing != null ? existing : value;
+	}
+}
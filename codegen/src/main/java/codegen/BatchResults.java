@@ -0,0 +1,233 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.github.javaparser.ParseException;
+
+/*
+ * Every file of a batch owns one slot, so concurrent workers can record their outcome without locking. Each outcome
+ * is handed to the listener as soon as it is recorded and read back in input order once all workers are done. With
+ * staged writes the outcomes are held back until the batch is committed or rolled back, nothing is reported as changed
+ * before it is.
+ *
+ * Workers walk the batch by position, the schedule maps a position to the index of the file in the input. The offsets
+ * are the running cost along the schedule and are what the fork/join engine splits on, they only exist once the batch
+ * is scheduled. A sequential batch keeps the input order and never looks at a file's size.
+ */
+class BatchResults {
+	private final List<File> files;
+	private final Integer[] schedule;
+	private long[] offsets;
+	private final FileResult[] results;
+	private final FileResultListener listener;
+	private FileCostHistory history;
+	private StagedWrites writes;
+	private boolean dryRun;
+
+	BatchResults(final List<File> files, final FileResultListener listener) {
+		this.files = files;
+		this.listener = listener;
+		this.schedule = new Integer[files.size()];
+		for (int i = 0; i < files.size(); i++) {
+			schedule[i] = i;
+		}
+		this.results = new FileResult[files.size()];
+	}
+
+	void recordInto(final FileCostHistory history) {
+		this.history = history;
+	}
+
+	/*
+	 * Nothing of the batch is written, changed results only tell what would be written.
+	 */
+	void dryRun() {
+		this.dryRun = true;
+	}
+
+	boolean isDryRun() {
+		return dryRun;
+	}
+
+	void stageInto(final StagedWrites writes) {
+		this.writes = writes;
+	}
+
+	/*
+	 * Hands the held back outcomes to the listener once the staged writes are committed.
+	 */
+	void publish() {
+		for (int i = 0; i < results.length; i++) {
+			completed(i, results[i]);
+		}
+	}
+
+	/*
+	 * Hands the held back outcomes to the listener when the staged writes were thrown away, a changed file is reported
+	 * as failed since it wasn't written. The outcomes read back stay as they were and tell what went wrong.
+	 */
+	void publishRolledBack(final Exception cause) {
+		for (int i = 0; i < results.length; i++) {
+			final FileResult result = results[i];
+			if (result != null && result.hasChanged()) {
+				final IOException error = new IOException("Not written, the batch of " + result.getFile()
+						+ " was rolled back");
+				if (cause != null) {
+					error.initCause(cause);
+				}
+				completed(i, FileResult.failed(result.getFile(), error, result.getReadTime(TimeUnit.NANOSECONDS),
+						result.getTransformTime(TimeUnit.NANOSECONDS), result.getWriteTime(TimeUnit.NANOSECONDS)));
+			} else if (result != null) {
+				completed(i, result);
+			}
+		}
+	}
+
+	/*
+	 * Where the workers leave their output in batch-commit mode, null when they write straight to the files.
+	 */
+	StagedWrites writes() {
+		return writes;
+	}
+
+	/*
+	 * Orders the batch by cost, most expensive first, and sums up the offsets the batch is split on.
+	 */
+	void schedule(final long[] costs) {
+		Arrays.sort(schedule, new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer left, final Integer right) {
+				return Long.compare(costs[right], costs[left]);
+			}
+		});
+		offsets = new long[schedule.length + 1];
+		for (int i = 0; i < schedule.length; i++) {
+			offsets[i + 1] = offsets[i] + Math.max(1, costs[schedule[i]]);
+		}
+	}
+
+	int size() {
+		return files.size();
+	}
+
+	List<File> files() {
+		return files;
+	}
+
+	int index(final int position) {
+		return schedule[position];
+	}
+
+	File file(final int index) {
+		return files.get(index);
+	}
+
+	long totalWeight() {
+		return offsets[offsets.length - 1];
+	}
+
+	long weight(final int from, final int to) {
+		return offsets[to] - offsets[from];
+	}
+
+	int split(final int from, final int to) {
+		final long half = offsets[from] + weight(from, to) / 2;
+		int middle = from + 1;
+		while (middle < to - 1 && offsets[middle + 1] <= half) {
+			middle++;
+		}
+		return middle;
+	}
+
+	void complete(final int index, final FileResult result) {
+		results[index] = result;
+		if (history != null) {
+			history.record(result);
+		}
+		if (writes == null) {
+			completed(index, result);
+		}
+	}
+
+	/*
+	 * Completes the files from the index on as failed without processing them, a run that stopped at the failure.
+	 */
+	void skip(final int from, final FileResult failure) {
+		for (int i = from; i < results.length; i++) {
+			final IOException error = new IOException(
+					"Not processed, the run stopped at " + failure.getFile(), failure.getError());
+			complete(i, FileResult.failed(files.get(i), error, 0, 0, 0));
+		}
+	}
+
+	protected void completed(final int index, final FileResult result) {
+		if (listener != null) {
+			listener.onResult(result);
+		}
+	}
+
+	boolean hasFailures() {
+		for (FileResult result : results) {
+			if (result == null || result.getError() != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	List<File> collect() throws IOException, ParseExceptions {
+		final List<File> parsedFiles = new ArrayList<File>();
+		for (FileResult result : collectChanged()) {
+			parsedFiles.add(result.getFile());
+		}
+		return parsedFiles;
+	}
+
+	List<FileResult> collectChanged() throws IOException, ParseExceptions {
+		final List<FileParseFaultResult> list = new ArrayList<FileParseFaultResult>();
+		final List<FileResult> changed = new ArrayList<FileResult>();
+		for (int i = 0; i < results.length; i++) {
+			final FileResult result = results[i];
+			if (result == null) {
+				throw new IllegalStateException("No result for " + files.get(i));
+			}
+			final Exception error = result.getError();
+			if (error instanceof IOException) {
+				throw (IOException) error;
+			}
+			if (error instanceof RuntimeException) {
+				throw (RuntimeException) error;
+			}
+			if (error instanceof ParseException) {
+				list.add(new FileParseFaultResult((ParseException) error, String.valueOf(files.get(i))));
+			} else if (result.hasChanged()) {
+				changed.add(result);
+			}
+		}
+		if (!list.isEmpty()) {
+			throw new ParseExceptions(list);
+		}
+		return changed;
+	}
+}
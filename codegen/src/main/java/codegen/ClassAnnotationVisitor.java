@@ -15,22 +15,39 @@
 */
 package codegen;
 
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
-import java.util.Map;
 
+import com.github.javaparser.ast.ImportDeclaration;
 import com.github.javaparser.ast.Node;
 import com.github.javaparser.ast.PackageDeclaration;
+import com.github.javaparser.ast.body.BodyDeclaration;
 import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.body.ConstructorDeclaration;
 import com.github.javaparser.ast.body.EnumDeclaration;
 import com.github.javaparser.ast.body.FieldDeclaration;
+import com.github.javaparser.ast.body.InitializerDeclaration;
 import com.github.javaparser.ast.body.MethodDeclaration;
 import com.github.javaparser.ast.body.Parameter;
+import com.github.javaparser.ast.body.TypeDeclaration;
 import com.github.javaparser.ast.body.VariableDeclaratorId;
 import com.github.javaparser.ast.expr.AnnotationExpr;
-import com.github.javaparser.ast.expr.MarkerAnnotationExpr;
-import com.github.javaparser.ast.expr.NormalAnnotationExpr;
-import com.github.javaparser.ast.expr.SingleMemberAnnotationExpr;
+import com.github.javaparser.ast.stmt.BlockStmt;
+import com.github.javaparser.ast.stmt.CatchClause;
+import com.github.javaparser.ast.stmt.DoStmt;
+import com.github.javaparser.ast.stmt.ForStmt;
+import com.github.javaparser.ast.stmt.ForeachStmt;
+import com.github.javaparser.ast.stmt.IfStmt;
+import com.github.javaparser.ast.stmt.LabeledStmt;
+import com.github.javaparser.ast.stmt.Statement;
+import com.github.javaparser.ast.stmt.SwitchEntryStmt;
+import com.github.javaparser.ast.stmt.SwitchStmt;
+import com.github.javaparser.ast.stmt.SynchronizedStmt;
+import com.github.javaparser.ast.stmt.TryStmt;
+import com.github.javaparser.ast.stmt.TypeDeclarationStmt;
+import com.github.javaparser.ast.stmt.WhileStmt;
 import com.github.javaparser.ast.visitor.GenericVisitorAdapter;
 import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
 
@@ -38,162 +55,311 @@ import codegen.InternalConfiguration.ClazzContainer;
 
 public class ClassAnnotationVisitor extends VoidVisitorAdapter<Void> {
 
+	private static final FieldNameExtractor FIELD_NAME = new FieldNameExtractor();
+
 	private final InternalConfiguration config;
 	private String packageName;
 	private String FQN;
+	// the configured names below the package, null when nothing in the package is configured
+	private TypeTrie packageScope;
+	// the types enclosing the member being visited, innermost first
+	private final Deque<Frame> frames = new ArrayDeque<Frame>();
 	private boolean hasChanged = false;
+	private final SourceSplicer splicer = new SourceSplicer();
+	// the changed declarations as type, type#field or type#method(parameters)
+	private final List<String> changes = new ArrayList<String>();
+	private final AnnotationMerger merger;
 
-	private ClassAnnotationVisitor(final InternalConfiguration config, final String packageName) {
-		this(config);
-		Utils.assertParamNotNull(packageName, "packageName");
-		this.packageName = packageName;
+	public ClassAnnotationVisitor(InternalConfiguration config) {
+		this(config, MergeStrategy.REPLACE);
 	}
 
-	public ClassAnnotationVisitor(InternalConfiguration config) {
+	public ClassAnnotationVisitor(InternalConfiguration config, MergeStrategy strategy) {
 		Utils.assertParamNotNull(config, "config");
 		this.config = config;
+		this.packageScope = config.getTypes();
+		this.merger = new AnnotationMerger(strategy);
 	}
 
 	@Override
 	public void visit(PackageDeclaration n, Void arg) {
 		this.packageName = n.getName().toString();
+		merger.setPackage(packageName);
+		this.packageScope = config.getTypes().find(packageName);
 		super.visit(n, arg);
 	}
 
+	@Override
+	public void visit(ImportDeclaration n, Void arg) {
+		if (n.isStatic()) {
+			return;
+		}
+		if (n.isAsterisk()) {
+			merger.addOnDemandImport(n.getName().toString());
+		} else {
+			merger.addImport(n.getName().toString());
+		}
+	}
+
 	@Override
 	public void visit(ClassOrInterfaceDeclaration n, Void arg) {
-		if (this.FQN == null) {
-			this.FQN = packageName + "." + n.getName();
-			final ClazzContainer clazz = this.config.getClass(this.FQN);
-			if (clazz != null && !clazz.getClassAnnotations().isEmpty()) {
-				hasChanged |= normalize(n.getAnnotations(), clazz.getClassAnnotations());
+		if (enter(n, n.getName())) {
+			try {
+				normalizeClass(n);
+				visitMembers(n.getMembers(), arg);
+			} finally {
+				frames.pop();
 			}
-			super.visit(n, arg);
-		} else {
-			new ClassAnnotationVisitor(config, this.FQN).visit(n, arg);
 		}
 	}
 
 	@Override
 	public void visit(EnumDeclaration n, Void arg) {
-		if (this.FQN == null) {
-			this.FQN = packageName + "." + n.getName();
-			final ClazzContainer clazz = this.config.getClass(this.FQN);
-			if (clazz != null && !clazz.getClassAnnotations().isEmpty()) {
-				hasChanged |= normalize(n.getAnnotations(), clazz.getClassAnnotations());
+		if (enter(n, n.getName())) {
+			try {
+				normalizeClass(n);
+				visitMembers(n.getMembers(), arg);
+			} finally {
+				frames.pop();
 			}
-			super.visit(n, arg);
-		} else {
-			new ClassAnnotationVisitor(config, this.FQN).visit(n, arg);
+		}
+	}
+
+	/*
+	 * Pushes the frame of the type and returns true, or returns false without pushing when neither the type nor
+	 * anything nested in it is configured, the caller then skips the whole subtree.
+	 */
+	private boolean enter(final TypeDeclaration n, final String name) {
+		final Frame enclosing = frames.peek();
+		// a type in the default package goes by its bare name
+		final String outer = enclosing != null ? enclosing.name : packageName;
+		final String typeName = outer != null ? outer + "." + name : name;
+		if (this.FQN == null) {
+			this.FQN = typeName;
+		}
+		final TypeTrie scope = enclosing != null ? enclosing.node : packageScope;
+		final TypeTrie node = scope != null ? scope.child(name) : null;
+		if (node == null) {
+			return false;
+		}
+		frames.push(new Frame(n, typeName, node));
+		return true;
+	}
+
+	private void normalizeClass(final TypeDeclaration n) {
+		final ClazzContainer clazz = frames.peek().node.getClazz();
+		if (clazz != null && !clazz.getClassAnnotations().isEmpty()) {
+			changed(normalize(n, clazz.getClassAnnotations()), frames.peek().name);
 		}
 	}
 
 	@Override
 	public void visit(FieldDeclaration n, Void arg) {
-		if (checkEnclosingEquality(n)) {
-			ClazzContainer clazz = this.config.getClass(this.FQN);
-			if (clazz != null) {
-				String fieldName = n.accept(new FieldNameExtractor(), null);
-				if (fieldName != null) {
-					List<AnnotationExpr> fieldAnnotations = clazz.getFieldAnnotations(fieldName);
-					if (!fieldAnnotations.isEmpty()) {
-						hasChanged |= normalize(n.getAnnotations(), fieldAnnotations);
-					}
+		final ClazzContainer clazz = enclosingClazz(n);
+		if (clazz != null) {
+			String fieldName = n.accept(FIELD_NAME, null);
+			if (fieldName != null) {
+				List<AnnotationExpr> fieldAnnotations = clazz.getFieldAnnotations(fieldName);
+				if (!fieldAnnotations.isEmpty()) {
+					changed(normalize(n, fieldAnnotations), frames.peek().name + "#" + fieldName);
 				}
 			}
 		}
-		super.visit(n, arg);
 	}
 
 	@Override
 	public void visit(final MethodDeclaration n, final Void arg) {
-		if (checkEnclosingEquality(n)) {
-			ClazzContainer clazz = this.config.getClass(this.FQN);
-			if (clazz != null) {
-				String methodSignature = getMethodSignature(n);
-				List<AnnotationExpr> methodAnnotations = clazz.getMethodAnnotations(methodSignature);
-				if (!methodAnnotations.isEmpty()) {
-					hasChanged |= normalize(n.getAnnotations(), methodAnnotations);
-				}
+		final ClazzContainer clazz = enclosingClazz(n);
+		if (clazz != null && clazz.hasMethodAnnotations(n.getName(), n.getParameters().size())) {
+			List<AnnotationExpr> methodAnnotations = clazz.getMethodAnnotations(n.getName(), parameterTypes(n));
+			if (!methodAnnotations.isEmpty()) {
+				changed(normalize(n, methodAnnotations), frames.peek().name + "#" + getMethodSignature(n));
 			}
 		}
-		super.visit(n, arg);
+		if (!frames.isEmpty()) {
+			visitLocalTypes(n.getBody(), arg);
+		}
 	}
 
-	boolean normalize(final List<AnnotationExpr> source, final List<AnnotationExpr> newAnnotations) {
-		boolean hasChanged = false;
-		final Map<String, AnnotationExpr> sourceMap = new HashMap<String, AnnotationExpr>();
-		for (AnnotationExpr annotationExpr : source) {
-			String accept = annotationExpr.accept(new AnnotationDeclarationBaseExtractor(), null);
-			sourceMap.put(accept, annotationExpr);
+	/*
+	 * The configuration of the type declaring the member, null if the member belongs to something else, like an
+	 * annotation type declared in the type.
+	 */
+	private ClazzContainer enclosingClazz(final Node member) {
+		final Frame frame = frames.peek();
+		if (frame == null || !checkEnclosingEquality(member)) {
+			return null;
 		}
-		for (AnnotationExpr newAnnotation : newAnnotations) {
-			String name = newAnnotation.accept(new AnnotationDeclarationBaseExtractor(), null);
-			if (sourceMap.containsKey(name)) {
-				AnnotationExpr oldAnnotation = sourceMap.put(name, newAnnotation);
-				source.remove(oldAnnotation);
-				hasChanged |= source.add(newAnnotation);
+		return frame.node.getClazz();
+	}
+
+	/*
+	 * Only declarations can carry configured annotations, so members are visited without descending into field
+	 * initializers or code. Code is only searched, statement by statement, for local classes and only if something
+	 * nested in this type is configured at all.
+	 */
+	private void visitMembers(final List<BodyDeclaration> members, final Void arg) {
+		for (BodyDeclaration member : members) {
+			if (member instanceof ConstructorDeclaration) {
+				visitLocalTypes(((ConstructorDeclaration) member).getBlock(), arg);
+			} else if (member instanceof InitializerDeclaration) {
+				visitLocalTypes(((InitializerDeclaration) member).getBlock(), arg);
 			} else {
-				hasChanged |= source.add(newAnnotation);
+				member.accept(this, arg);
 			}
 		}
-		return hasChanged;
 	}
 
-	String getMethodSignature(final MethodDeclaration n) {
-		return String.format("%s(%s)", n.getName(), join(n.getParameters()));
+	private void visitLocalTypes(final Statement statement, final Void arg) {
+		if (statement == null || !frames.peek().node.hasChildren()) {
+			return;
+		}
+		if (statement instanceof TypeDeclarationStmt) {
+			((TypeDeclarationStmt) statement).getTypeDeclaration().accept(this, arg);
+		} else if (statement instanceof BlockStmt) {
+			visitLocalTypes(((BlockStmt) statement).getStmts(), arg);
+		} else if (statement instanceof IfStmt) {
+			visitLocalTypes(((IfStmt) statement).getThenStmt(), arg);
+			visitLocalTypes(((IfStmt) statement).getElseStmt(), arg);
+		} else if (statement instanceof ForStmt) {
+			visitLocalTypes(((ForStmt) statement).getBody(), arg);
+		} else if (statement instanceof ForeachStmt) {
+			visitLocalTypes(((ForeachStmt) statement).getBody(), arg);
+		} else if (statement instanceof WhileStmt) {
+			visitLocalTypes(((WhileStmt) statement).getBody(), arg);
+		} else if (statement instanceof DoStmt) {
+			visitLocalTypes(((DoStmt) statement).getBody(), arg);
+		} else if (statement instanceof LabeledStmt) {
+			visitLocalTypes(((LabeledStmt) statement).getStmt(), arg);
+		} else if (statement instanceof SynchronizedStmt) {
+			visitLocalTypes(((SynchronizedStmt) statement).getBlock(), arg);
+		} else if (statement instanceof SwitchStmt) {
+			for (SwitchEntryStmt entry : ((SwitchStmt) statement).getEntries()) {
+				visitLocalTypes(entry.getStmts(), arg);
+			}
+		} else if (statement instanceof TryStmt) {
+			final TryStmt tryStmt = (TryStmt) statement;
+			visitLocalTypes(tryStmt.getTryBlock(), arg);
+			if (tryStmt.getCatchs() != null) {
+				for (CatchClause catchClause : tryStmt.getCatchs()) {
+					visitLocalTypes(catchClause.getCatchBlock(), arg);
+				}
+			}
+			visitLocalTypes(tryStmt.getFinallyBlock(), arg);
+		}
 	}
 
-	private String join(final List<Parameter> parameters) {
-		final StringBuilder sb = new StringBuilder();
-		for (int i = 0; i < parameters.size(); i++) {
-			if (i > 0) {
-				sb.append(",");
+	private void visitLocalTypes(final List<Statement> statements, final Void arg) {
+		if (statements != null) {
+			for (Statement statement : statements) {
+				visitLocalTypes(statement, arg);
 			}
-			sb.append(parameters.get(i).getType());
 		}
-		return sb.toString();
 	}
 
-	static class FieldNameExtractor extends GenericVisitorAdapter<String, Void> {
-		@Override
-		public String visit(VariableDeclaratorId n, Void arg) {
-			return n.getName();
+	boolean normalize(final BodyDeclaration declaration, final List<AnnotationExpr> newAnnotations) {
+		final List<AnnotationExpr> source = declaration.getAnnotations();
+		final List<String> names = new ArrayList<String>(source.size());
+		for (AnnotationExpr annotation : source) {
+			names.add(AnnotationMerger.name(annotation));
+		}
+		final AnnotationMerger.Plan plan = merger.merge(names, new AnnotationMerger.Existing() {
+			@Override
+			AnnotationExpr tree(final int position) {
+				return source.get(position);
+			}
+		}, newAnnotations);
+		if (plan.isEmpty()) {
+			return false;
+		}
+		final List<AnnotationExpr> kept = new ArrayList<AnnotationExpr>(source.size());
+		final List<AnnotationExpr> removed = new ArrayList<AnnotationExpr>();
+		for (int i = 0; i < source.size(); i++) {
+			(plan.isRemoved(i) ? removed : kept).add(source.get(i));
 		}
+		final List<AnnotationExpr> added = new ArrayList<AnnotationExpr>(plan.getAdded().size());
+		for (AnnotationExpr annotation : plan.getAdded()) {
+			// The configured annotation is shared by every file, only a copy may be attached to this tree
+			added.add((AnnotationExpr) annotation.clone());
+		}
+		source.clear();
+		source.addAll(kept);
+		source.addAll(added);
+		splicer.record(declaration, kept, removed, added);
+		return true;
 	}
 
-	private class AnnotationDeclarationBaseExtractor extends GenericVisitorAdapter<String, Void> {
-
-		@Override
-		public String visit(MarkerAnnotationExpr n, Void arg) {
-			return n.getName().getName();
+	String getMethodSignature(final MethodDeclaration n) {
+		final StringBuilder sb = new StringBuilder(n.getName()).append('(');
+		final List<Parameter> parameters = n.getParameters();
+		for (int i = 0; i < parameters.size(); i++) {
+			if (i > 0) {
+				sb.append(",");
+			}
+			sb.append(parameters.get(i).getType());
 		}
+		return sb.append(')').toString();
+	}
 
-		@Override
-		public String visit(NormalAnnotationExpr n, Void arg) {
-			return n.getName().toString();
+	private static List<String> parameterTypes(final MethodDeclaration n) {
+		final List<Parameter> parameters = n.getParameters();
+		final List<String> types = new ArrayList<String>(parameters.size());
+		for (Parameter parameter : parameters) {
+			types.add(parameter.getType().toString());
 		}
+		return types;
+	}
 
+	/*
+	 * Stateless, one instance serves every field.
+	 */
+	static class FieldNameExtractor extends GenericVisitorAdapter<String, Void> {
 		@Override
-		public String visit(SingleMemberAnnotationExpr n, Void arg) {
-			return n.getName().getName();
+		public String visit(VariableDeclaratorId n, Void arg) {
+			return n.getName();
 		}
-
 	}
 
 	boolean checkEnclosingEquality(Node node) {
-		if (FQN == null) {
+		final Frame frame = frames.peek();
+		if (frame == null) {
 			throw new IllegalStateException("FQN not initialized");
 		}
-		String found = new FQNExtractor(node).find();
-		return found.equals(this.FQN);
+		return node.getParentNode() == frame.declaration;
 	}
 
 	public boolean hasChanged() {
 		return hasChanged;
 	}
 
+	SourceSplicer getSplicer() {
+		return splicer;
+	}
+
+	List<String> getChanges() {
+		return changes;
+	}
+
+	private void changed(final boolean changed, final String declaration) {
+		if (changed) {
+			hasChanged = true;
+			changes.add(declaration);
+		}
+	}
+
 	String getFQN() {
 		return this.FQN;
 	}
+
+	private static class Frame {
+		private final TypeDeclaration declaration;
+		private final String name;
+		private final TypeTrie node;
+
+		Frame(final TypeDeclaration declaration, final String name, final TypeTrie node) {
+			this.declaration = declaration;
+			this.name = name;
+			this.node = node;
+		}
+	}
 }
@@ -15,91 +15,318 @@
 */
 package codegen;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.charset.Charset;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import com.github.javaparser.JavaParser;
 import com.github.javaparser.ParseException;
 import com.github.javaparser.ast.CompilationUnit;
-import com.github.javaparser.ast.expr.AnnotationExpr;
-
-import codegen.Configuration.ClazzContainer;
 
 public class CodeGenerator {
 
 	private final InternalConfiguration config;
-	private final Charset encoding;
+	private final SourcePrescanner prescanner;
+	private final SourceIO io;
+	private volatile int parallelism = 1;
+	private volatile ExecutionMode executionMode = ExecutionMode.FORK_JOIN;
+	private volatile WriteMode writeMode = WriteMode.REPRINT;
+	private volatile Engine engine = Engine.AST;
+	private volatile MergeStrategy mergeStrategy = MergeStrategy.REPLACE;
+	private volatile boolean batchCommit;
+	private volatile OutputTree output;
+	private volatile File costHistoryFile;
 
 	public CodeGenerator(final File configFile) throws IOException, ParseException {
-		Utils.assertParamNotNull(configFile, "configFile");
-		final Configuration parsedConfig = Configuration.parse(configFile);		
-		this.encoding = Charset.forName(parsedConfig.getEncoding() != null ? parsedConfig.getEncoding() : "UTF-8");		
-		config = validate(parsedConfig.getClasses());
+		this(configFile, null);
 	}
 
-	private InternalConfiguration validate(final Map<String, ClazzContainer> classes) throws ParseException {
-		final Map<String, InternalConfiguration.ClazzContainer> internalClasses = new HashMap<String, InternalConfiguration.ClazzContainer>();
-		for (Entry<String, ClazzContainer> clazzContainer : classes.entrySet()) {
-			final List<AnnotationExpr> classAnnotations = new ArrayList<AnnotationExpr>();
+	/*
+	 * Keeps a binary snapshot of the compiled configuration in snapshotDirectory, a later build with the same
+	 * configuration content reads that and only compiles the classes its sources reach.
+	 */
+	public CodeGenerator(final File configFile, final File snapshotDirectory) throws IOException, ParseException {
+		this(Collections.singletonList(configFile), snapshotDirectory);
+	}
 
-			for (String string : clazzContainer.getValue().getClassAnnotations()) {
-				classAnnotations.add(JavaParser.parseAnnotation(string));
-			}
+	/*
+	 * Merges several configuration files, a later one takes precedence over an earlier one where they configure the
+	 * same class, field or method.
+	 */
+	public CodeGenerator(final List<File> configFiles, final File snapshotDirectory)
+			throws IOException, ParseException {
+		Utils.assertParamNotNull(configFiles, "configFiles");
+		for (File configFile : configFiles) {
+			Utils.assertParamNotNull(configFile, "configFile");
+		}
+		config = CompiledConfigurationCache.get(configFiles, snapshotDirectory);
+		prescanner = new SourcePrescanner(config);
+		io = new SourceIO(config.getEncoding());
+	}
 
-			final Map<String, List<AnnotationExpr>> fieldAnnotations = parseAnnotations(
-					clazzContainer.getValue().getFieldAnnotations().entrySet());
-			final Map<String, List<AnnotationExpr>> methodAnnotations = parseAnnotations(
-					clazzContainer.getValue().getMethodAnnotations().entrySet());
+	/*
+	 * Parses every configured annotation now instead of when a source first reaches it.
+	 */
+	public void validateConfiguration() throws ParseException {
+		config.validate();
+	}
 
-			internalClasses.put(clazzContainer.getKey(),
-					new InternalConfiguration.ClazzContainer(classAnnotations, fieldAnnotations, methodAnnotations));
+	public void setParallelism(final int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1 but was " + parallelism);
 		}
-		return new InternalConfiguration(internalClasses);
+		this.parallelism = parallelism;
 	}
 
-	private Map<String, List<AnnotationExpr>> parseAnnotations(final Set<Entry<String, List<String>>> entrySet)
-			throws ParseException {
-		final Map<String, List<AnnotationExpr>> map = new HashMap<String, List<AnnotationExpr>>();
-		for (Entry<String, List<String>> entry : entrySet) {
-			final String key = entry.getKey();
-			final List<String> annotationStrings = entry.getValue();
-			final List<AnnotationExpr> list = new ArrayList<AnnotationExpr>(annotationStrings.size());
-			for (String annotation : annotationStrings) {
-				list.add(JavaParser.parseAnnotation(annotation));
-			}
-			map.put(key, list);
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public void setExecutionMode(final ExecutionMode executionMode) {
+		Utils.assertParamNotNull(executionMode, "executionMode");
+		this.executionMode = executionMode;
+	}
+
+	public ExecutionMode getExecutionMode() {
+		return executionMode;
+	}
+
+	/*
+	 * REPRINT can't be combined with the LEXER engine, which only patches text.
+	 */
+	public void setWriteMode(final WriteMode writeMode) {
+		Utils.assertParamNotNull(writeMode, "writeMode");
+		if (writeMode == WriteMode.REPRINT && engine == Engine.LEXER) {
+			throw new IllegalArgumentException("The LEXER engine writes in SPLICE mode, it can't REPRINT");
 		}
-		return map;
+		this.writeMode = writeMode;
+	}
+
+	public WriteMode getWriteMode() {
+		return writeMode;
+	}
+
+	/*
+	 * The LEXER engine only patches text, choosing it switches the write mode to SPLICE.
+	 */
+	public void setEngine(final Engine engine) {
+		Utils.assertParamNotNull(engine, "engine");
+		if (engine == Engine.LEXER) {
+			this.writeMode = WriteMode.SPLICE;
+		}
+		this.engine = engine;
+	}
+
+	public Engine getEngine() {
+		return engine;
+	}
+
+	public void setMergeStrategy(final MergeStrategy mergeStrategy) {
+		Utils.assertParamNotNull(mergeStrategy, "mergeStrategy");
+		this.mergeStrategy = mergeStrategy;
+	}
+
+	public MergeStrategy getMergeStrategy() {
+		return mergeStrategy;
+	}
+
+	/*
+	 * In batch-commit mode the changed files of a batch are only replaced once every file of it went through, a batch
+	 * with a failing file leaves all of them untouched.
+	 */
+	public void setBatchCommit(final boolean batchCommit) {
+		this.batchCommit = batchCommit;
+	}
+
+	public boolean isBatchCommit() {
+		return batchCommit;
+	}
+
+	/*
+	 * Writes the results to outputDirectory, in the same place relative to it as the sources have to sourceDirectory,
+	 * instead of changing the sources. Unchanged sources are passed through so the output is a complete tree, and
+	 * outputs whose source is gone are deleted after every batch. A null outputDirectory changes the sources in place
+	 * again.
+	 */
+	public void setOutputDirectory(final File sourceDirectory, final File outputDirectory) {
+		Utils.assertParamNotNull(sourceDirectory, "sourceDirectory");
+		this.output = outputDirectory != null ? new OutputTree(sourceDirectory, outputDirectory, io) : null;
+	}
+
+	public File getOutputDirectory() {
+		final OutputTree tree = output;
+		return tree != null ? tree.getOutputRoot() : null;
+	}
+
+	/*
+	 * Deletes the outputs whose source is gone without running a batch, for a build that found nothing to process.
+	 * Returns how many files were deleted, none without an output directory.
+	 */
+	public int pruneOutput() throws IOException {
+		final OutputTree tree = output;
+		return tree != null ? tree.prune() : 0;
+	}
+
+	/*
+	 * Only runs that schedule their files, in parallel or in a pipeline, read and write the history.
+	 */
+	public void setCostHistory(final File costHistoryFile) {
+		this.costHistoryFile = costHistoryFile;
 	}
 
+	public File getCostHistory() {
+		return costHistoryFile;
+	}
+
+	public TargetFiles findTargets(final File sourceRoot) {
+		return TargetFiles.resolve(config.getClassNames(), sourceRoot);
+	}
+
+	/*
+	 * A sequential run stops at the first file that fails with an IOException or RuntimeException and throws it, the
+	 * files after it are reported as failed without being processed. Parallel and pipelined runs work on many files at
+	 * once, so they process every file and throw the first such error in file order when the batch is done. Parse
+	 * errors never stop a run, they are thrown together as ParseExceptions.
+	 */
 	public List<File> parse(final List<File> files) throws IOException, ParseExceptions {
-		final List<FileParseFaultResult> list = new ArrayList<FileParseFaultResult>();
-		final List<File> parsedFiles = new ArrayList<File>();
-		for (File file : files) {
-			try {
-				if (parse(file)) {
-					parsedFiles.add(file);
+		return parse(files, null);
+	}
+
+	public List<File> parse(final List<File> files, final FileResultListener listener)
+			throws IOException, ParseExceptions {
+		Utils.assertParamNotNull(files, "files");
+		final BatchResults results = new BatchResults(files, listener);
+		run(results);
+		return results.collect();
+	}
+
+	/*
+	 * Runs the files through the engine like parse does but writes nothing, not even the cost history, and returns the
+	 * results of the files that would change. Their changes name the declarations that would get annotations.
+	 */
+	public List<FileResult> check(final List<File> files) throws IOException, ParseExceptions {
+		Utils.assertParamNotNull(files, "files");
+		final BatchResults results = new BatchResults(files, null);
+		results.dryRun();
+		run(results);
+		return results.collectChanged();
+	}
+
+	/*
+	 * Like parse but returns at once with a future per file, completed as each file is done. The batch is run from the
+	 * common fork join pool.
+	 */
+	public List<CompletableFuture<FileResult>> parseAsync(final List<File> files) {
+		Utils.assertParamNotNull(files, "files");
+		final List<CompletableFuture<FileResult>> futures = new ArrayList<CompletableFuture<FileResult>>(
+				files.size());
+		for (int i = 0; i < files.size(); i++) {
+			futures.add(new CompletableFuture<FileResult>());
+		}
+		final BatchResults results = new BatchResults(files, null) {
+			@Override
+			protected void completed(final int index, final FileResult result) {
+				futures.get(index).complete(result);
+			}
+		};
+		CompletableFuture.runAsync(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					CodeGenerator.this.run(results);
+				} catch (Throwable e) {
+					for (CompletableFuture<FileResult> future : futures) {
+						future.completeExceptionally(e);
+					}
 				}
-			} catch (ParseException e) {
-				list.add(new FileParseFaultResult(e, file.toString()));
 			}
+		});
+		return futures;
+	}
+
+	private void run(final BatchResults results) throws IOException {
+		if (results.size() == 0) {
+			return;
+		}
+		// only a scheduled run has a use for the history
+		final boolean scheduled = executionMode == ExecutionMode.PIPELINE || parallelism > 1 && results.size() > 1;
+		final File historyFile = costHistoryFile;
+		final FileCostHistory history = scheduled && historyFile != null ? FileCostHistory.load(historyFile) : null;
+		if (scheduled) {
+			final List<File> files = results.files();
+			results.schedule(history != null ? history.estimate(files) : FileCostHistory.sizes(files));
+		}
+		results.recordInto(history);
+		final StagedWrites writes = batchCommit && !results.isDryRun() ? new StagedWrites() : null;
+		results.stageInto(writes);
+		try {
+			execute(results);
+			if (writes != null) {
+				commit(results, writes);
+			}
+		} finally {
+			if (writes != null) {
+				// whatever wasn't committed is thrown away
+				writes.rollback();
+			}
+			// the workers end with the batch, the calling thread may live as long as the build daemon
+			SourceIO.release();
+		}
+		final OutputTree tree = output;
+		if (tree != null && !results.isDryRun() && (writes == null || !results.hasFailures())) {
+			tree.prune();
 		}
-		if (!list.isEmpty()) {
-			throw new ParseExceptions(list);
+		if (history != null && !results.isDryRun()) {
+			history.save(results.files());
+		}
+	}
+
+	/*
+	 * The held back results are published once it is known whether the staged files were written.
+	 */
+	private static void commit(final BatchResults results, final StagedWrites writes) throws IOException {
+		if (results.hasFailures()) {
+			results.publishRolledBack(null);
+			return;
+		}
+		try {
+			writes.commit();
+		} catch (IOException e) {
+			results.publishRolledBack(e);
+			throw e;
+		} catch (RuntimeException e) {
+			results.publishRolledBack(e);
+			throw e;
+		}
+		results.publish();
+	}
+
+	private void execute(final BatchResults results) throws IOException {
+		if (executionMode == ExecutionMode.PIPELINE) {
+			new PipelinedParser(this, parallelism).parse(results);
+		} else if (parallelism > 1 && results.size() > 1) {
+			new ParallelParser(this, parallelism).parse(results);
+		} else {
+			for (int i = 0; i < results.size(); i++) {
+				final FileResult result = process(results.file(i), results);
+				results.complete(i, result);
+				if (result.getError() != null && !(result.getError() instanceof ParseException)) {
+					results.skip(i + 1, result);
+					return;
+				}
+			}
 		}
-		return parsedFiles;
 	}
 
 	public List<File> parse(final File... files) throws IOException, ParseExceptions {
@@ -107,33 +334,206 @@ public class CodeGenerator {
 	}
 
 	public boolean parse(final File targetFile) throws IOException, ParseException {
+		final String source = read(targetFile);
+		final Output result = source != null ? change(source) : null;
+		if (result == null) {
+			passThrough(targetFile, (StagedWrites) null);
+			return false;
+		}
+		return writeFile(result, output(targetFile), null);
+	}
+
+	FileResult process(final File targetFile, final BatchResults results) {
+		final long start = System.nanoTime();
+		long readNanos = -1;
+		long transformNanos = -1;
+		try {
+			final String source = read(targetFile);
+			readNanos = System.nanoTime() - start;
+			if (source == null) {
+				passThrough(targetFile, results);
+				return new FileResult(targetFile, FileResult.Status.UNCHANGED, null, readNanos, 0,
+						System.nanoTime() - start - readNanos);
+			}
+			final Output result = change(source);
+			transformNanos = System.nanoTime() - start - readNanos;
+			if (result == null) {
+				passThrough(targetFile, results);
+				return new FileResult(targetFile, FileResult.Status.UNCHANGED, null, readNanos, transformNanos,
+						System.nanoTime() - start - readNanos - transformNanos);
+			}
+			if (results.isDryRun()) {
+				return new FileResult(targetFile, FileResult.Status.CHANGED, null, readNanos, transformNanos, 0,
+						result.getChanges());
+			}
+			final boolean written = writeFile(result, output(targetFile), results.writes());
+			return FileResult.written(targetFile, written, readNanos, transformNanos,
+					System.nanoTime() - start - readNanos - transformNanos, result.getChanges());
+		} catch (ParseException e) {
+			return failed(targetFile, e, start, readNanos, transformNanos);
+		} catch (IOException e) {
+			return failed(targetFile, e, start, readNanos, transformNanos);
+		} catch (RuntimeException e) {
+			return failed(targetFile, e, start, readNanos, transformNanos);
+		}
+	}
+
+	private static FileResult failed(final File targetFile, final Exception e, final long start, final long readNanos,
+			final long transformNanos) {
+		final long elapsed = System.nanoTime() - start;
+		if (readNanos < 0) {
+			return FileResult.failed(targetFile, e, elapsed, 0, 0);
+		}
+		if (transformNanos < 0) {
+			return FileResult.failed(targetFile, e, readNanos, elapsed - readNanos, 0);
+		}
+		return FileResult.failed(targetFile, e, readNanos, transformNanos, elapsed - readNanos - transformNanos);
+	}
+
+	/*
+	 * Returns null without decoding the content when the file can't declare any configured type.
+	 */
+	String read(final File targetFile) throws IOException {
 		if (targetFile == null) {
 			throw new NullPointerException();
 		}
 		if (!targetFile.exists()) {
 			throw new FileNotFoundException(targetFile.toString());
 		}
-		final CompilationUnit cu = JavaParser.parse(targetFile, encoding.name());
-		final ClassAnnotationVisitor visitor = new ClassAnnotationVisitor(config);
+		final ByteBuffer content = io.read(targetFile);
+		if (!prescanner.mayDeclareConfiguredType(content)) {
+			return null;
+		}
+		return io.decode(content);
+	}
+
+	/*
+	 * Where the result for the source goes, the source itself unless there is an output directory.
+	 */
+	File output(final File source) throws IOException {
+		final OutputTree tree = output;
+		return tree != null ? tree.target(source) : source;
+	}
+
+	/*
+	 * Copies an unchanged source to the output directory, if there is one and the batch isn't a dry run.
+	 */
+	void passThrough(final File source, final BatchResults results) throws IOException {
+		if (results == null) {
+			passThrough(source, (StagedWrites) null);
+		} else if (!results.isDryRun()) {
+			passThrough(source, results.writes());
+		}
+	}
+
+	private void passThrough(final File source, final StagedWrites writes) throws IOException {
+		final OutputTree tree = output;
+		if (tree != null) {
+			tree.passThrough(source, writes);
+		}
+	}
+
+	/*
+	 * Null when nothing changed. A reprinted tree is returned unprinted, writeFile prints it.
+	 */
+	Output change(final String source) throws ParseException {
+		if (engine == Engine.LEXER) {
+			try {
+				final LexerTransformer lexer = new LexerTransformer(config, source, mergeStrategy);
+				final String spliced = lexer.transform();
+				return spliced != null ? Output.text(spliced, lexer.getChanges()) : null;
+			} catch (LexerTransformer.Unsupported e) {
+				// left to the parser
+			}
+		}
+		final CompilationUnit cu = JavaParser.parse(new StringReader(source), true);
+		final ClassAnnotationVisitor visitor = new ClassAnnotationVisitor(config, mergeStrategy);
 		visitor.visit(cu, null);
-		if (visitor.hasChanged()) {
-			writeFile(cu, targetFile);
+		if (!visitor.hasChanged()) {
+			return null;
+		}
+		if (writeMode == WriteMode.SPLICE) {
+			final String spliced = visitor.getSplicer().apply(source);
+			if (spliced != null) {
+				return Output.text(spliced, visitor.getChanges());
+			}
+		}
+		return Output.tree(cu, visitor.getChanges());
+	}
+
+	boolean writeFile(final Output output, final File targetFile, final StagedWrites writes) throws IOException {
+		if (output.getText() != null) {
+			return writeFile(output.getText(), targetFile, writes);
 		}
-		return visitor.hasChanged();
+		return printFile(output.getTree(), targetFile, writes);
 	}
 
-	private void writeFile(final CompilationUnit cu, final File targetFile) throws IOException {
-		if (targetFile.exists()) {
-			if (!targetFile.delete()) {
-				throw new IOException("Couldn't delete file " + targetFile.getAbsolutePath());
+	/*
+	 * Returns false without touching the file when it already has this content, so its timestamp stays and nothing
+	 * downstream recompiles it. The content goes to a temp file in the same directory that then replaces the target in
+	 * one move, so the target is never missing or half written. With staged writes the move is left to the commit.
+	 */
+	boolean writeFile(final String content, final File targetFile, final StagedWrites writes) throws IOException {
+		final ByteBuffer bytes = io.encode(content);
+		if (io.hasContent(targetFile, bytes)) {
+			return false;
+		}
+		final Path temp = createTempFile(targetFile);
+		try {
+			SourceIO.write(temp, bytes);
+			replace(targetFile, temp, writes);
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		} catch (RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		return true;
+	}
+
+	/*
+	 * Like writeFile, but the tree is printed straight into the temp file, which is then compared to the target.
+	 */
+	private boolean printFile(final CompilationUnit cu, final File targetFile, final StagedWrites writes)
+			throws IOException {
+		final Path temp = createTempFile(targetFile);
+		try {
+			io.print(cu, temp);
+			if (io.sameContent(temp.toFile(), targetFile)) {
+				Files.delete(temp);
+				return false;
 			}
+			replace(targetFile, temp, writes);
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		} catch (RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		return true;
+	}
+
+	static Path createTempFile(final File targetFile) throws IOException {
+		final Path directory = targetFile.toPath().toAbsolutePath().getParent();
+		return Files.createTempFile(directory, "." + targetFile.getName() + ".", ".tmp");
+	}
+
+	static void replace(final File targetFile, final Path temp, final StagedWrites writes)
+			throws IOException {
+		if (writes != null) {
+			writes.add(temp, targetFile.toPath());
+		} else {
+			moveAtomically(temp, targetFile.toPath());
 		}
-		final BufferedWriter fileOutput = new BufferedWriter(
-				new OutputStreamWriter(new FileOutputStream(targetFile), encoding));
+	}
+
+	static void moveAtomically(final Path source, final Path target) throws IOException {
 		try {
-			fileOutput.write(cu.toString());
-		} finally {
-			fileOutput.close();
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
 		}
 	}
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Keeps compiled configurations for the lifetime of the class loader, keyed by a hash of the configuration content.
+ * Maven reuses the plugin class loader for every module in a reactor build, so modules sharing a configuration file
+ * (or a copy of it) compile it once. Several files merged into one configuration are keyed by all of their contents
+ * in order. The map is bounded and least recently used entries fall out first, the values are
+ * softly referenced so a tight heap can reclaim them as well.
+ *
+ * With a snapshot directory a compiled configuration also outlives the build: the first build writes a snapshot of it
+ * there and later builds map that instead of parsing the JSON and every annotation in it again. A snapshot is named
+ * after the content hash and the engine version, an upgraded engine never reads the snapshots of an older one.
+ */
+final class CompiledConfigurationCache {
+
+	static final int MAX_ENTRIES = 16;
+
+	private static final Map<String, CachedConfiguration> CACHE = new LinkedHashMap<String, CachedConfiguration>(
+			MAX_ENTRIES, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, CachedConfiguration> eldest) {
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	private CompiledConfigurationCache() {
+	}
+
+	static InternalConfiguration get(final File configFile) throws IOException {
+		return get(configFile, null);
+	}
+
+	static InternalConfiguration get(final File configFile, final File snapshotDirectory) throws IOException {
+		Utils.assertParamNotNull(configFile, "configFile");
+		return get(Collections.singletonList(configFile), snapshotDirectory);
+	}
+
+	static InternalConfiguration get(final List<File> configFiles, final File snapshotDirectory) throws IOException {
+		Utils.assertParamNotNull(configFiles, "configFiles");
+		if (configFiles.isEmpty()) {
+			throw new IllegalArgumentException("configFiles is empty");
+		}
+		final List<byte[]> contents = new ArrayList<byte[]>(configFiles.size());
+		for (File configFile : configFiles) {
+			contents.add(Files.readAllBytes(configFile.toPath()));
+		}
+		final String key = hash(contents);
+		CachedConfiguration entry;
+		synchronized (CACHE) {
+			entry = CACHE.get(key);
+			if (entry == null) {
+				entry = new CachedConfiguration();
+				CACHE.put(key, entry);
+			}
+		}
+		return entry.get(contents, snapshotDirectory != null && ConfigurationSnapshot.isEnabled()
+				? new File(snapshotDirectory, ConfigurationSnapshot.fileName(key)) : null);
+	}
+
+	static int size() {
+		synchronized (CACHE) {
+			return CACHE.size();
+		}
+	}
+
+	static void clear() {
+		synchronized (CACHE) {
+			CACHE.clear();
+		}
+	}
+
+	private static String hash(final List<byte[]> contents) {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+		for (byte[] content : contents) {
+			// the length keeps a content ending where the next one starts from hashing like another split
+			final int length = content.length;
+			digest.update(new byte[] { (byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8),
+					(byte) length });
+			digest.update(content);
+		}
+		final StringBuilder sb = new StringBuilder();
+		for (byte b : digest.digest()) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * Compiling happens outside the map lock, concurrent lookups of the same content wait for the first one instead of
+	 * compiling it again.
+	 */
+	private static class CachedConfiguration {
+		private SoftReference<InternalConfiguration> compiled = new SoftReference<InternalConfiguration>(null);
+
+		synchronized InternalConfiguration get(final List<byte[]> contents, final File snapshot) throws IOException {
+			InternalConfiguration config = compiled.get();
+			if (config == null && snapshot != null && snapshot.isFile()) {
+				config = readSnapshot(snapshot);
+			}
+			if (config == null) {
+				config = ConfigurationLoader.load(contents);
+				if (snapshot != null) {
+					writeSnapshot(config, snapshot);
+				}
+			}
+			compiled = new SoftReference<InternalConfiguration>(config);
+			return config;
+		}
+
+		/*
+		 * A snapshot is only a shortcut, one that can't be read is compiled again and overwritten.
+		 */
+		private static InternalConfiguration readSnapshot(final File snapshot) {
+			try {
+				return ConfigurationSnapshot.read(snapshot);
+			} catch (IOException e) {
+				return null;
+			}
+		}
+
+		private static void writeSnapshot(final InternalConfiguration config, final File snapshot) {
+			try {
+				ConfigurationSnapshot.write(config, snapshot);
+			} catch (IOException e) {
+				// the next build compiles the configuration again
+			}
+		}
+	}
+}
@@ -29,6 +29,8 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class Configuration {
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
 	@JsonProperty
 	private final Map<String, ClazzContainer> classes = new HashMap<String, ClazzContainer>();
 	@JsonProperty
@@ -104,11 +106,10 @@ public class Configuration {
 
 	public static Configuration parse(File file) throws IOException {
 		Utils.assertParamNotNull(file, "file");
-		ObjectMapper mapper = new ObjectMapper();
 		InputStream is = null;
 		try {
 			is = Files.newInputStream(file.toPath());
-			return mapper.readValue(is, Configuration.class);
+			return MAPPER.readValue(is, Configuration.class);
 		} finally {
 			if (is != null) {
 				is.close();
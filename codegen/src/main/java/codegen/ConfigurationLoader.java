@@ -0,0 +1,232 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import codegen.InternalConfiguration.ClazzContainer;
+
+/*
+ * Reads configuration files token by token straight into the internal configuration, without binding them to a
+ * Configuration first. Several files are read in parallel and merged in the order given, a later file takes
+ * precedence over an earlier one:
+ * - a class configured in both gets the class annotations of the later file if it lists any,
+ * - a field or method configured in both gets the annotations of the later file,
+ * - everything configured in only one of them is kept as it is,
+ * - the encoding of the later file wins if it has one.
+ */
+final class ConfigurationLoader {
+
+	private static final JsonFactory JSON = new JsonFactory();
+
+	private ConfigurationLoader() {
+	}
+
+	static InternalConfiguration load(final List<byte[]> contents) throws IOException {
+		Utils.assertParamNotNull(contents, "contents");
+		final Map<String, ClassEntry> classes = new HashMap<String, ClassEntry>();
+		String encoding = null;
+		for (Parsed parsed : parseAll(contents)) {
+			for (Map.Entry<String, ClassEntry> entry : parsed.classes.entrySet()) {
+				final ClassEntry existing = classes.get(entry.getKey());
+				if (existing == null) {
+					classes.put(entry.getKey(), entry.getValue());
+				} else {
+					existing.override(entry.getValue());
+				}
+			}
+			if (parsed.encoding != null) {
+				encoding = parsed.encoding;
+			}
+		}
+
+		// the interner is only needed until the classes are built, the pool compiles for as long as they are used
+		final SourceInterner interner = new SourceInterner();
+		final AnnotationPool pool = new AnnotationPool();
+		final Map<String, ClazzContainer> compiled = new HashMap<String, ClazzContainer>(classes.size() * 4 / 3 + 1);
+		for (Map.Entry<String, ClassEntry> entry : classes.entrySet()) {
+			compiled.put(interner.key(entry.getKey()), entry.getValue().toClazzContainer(interner, pool));
+		}
+		return new InternalConfiguration(compiled,
+				encoding != null ? Charset.forName(encoding) : InternalConfiguration.DEFAULT_ENCODING);
+	}
+
+	private static List<Parsed> parseAll(final List<byte[]> contents) throws IOException {
+		if (contents.size() == 1) {
+			return Collections.singletonList(parse(contents.get(0)));
+		}
+		final List<Future<Parsed>> futures = new ArrayList<Future<Parsed>>(contents.size());
+		for (final byte[] content : contents) {
+			futures.add(ForkJoinPool.commonPool().submit(new Callable<Parsed>() {
+				@Override
+				public Parsed call() throws IOException {
+					return parse(content);
+				}
+			}));
+		}
+		final List<Parsed> parsed = new ArrayList<Parsed>(contents.size());
+		for (Future<Parsed> future : futures) {
+			try {
+				parsed.add(future.get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while reading the configuration", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) {
+					throw (IOException) e.getCause();
+				}
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+		return parsed;
+	}
+
+	private static Parsed parse(final byte[] content) throws IOException {
+		final JsonParser parser = JSON.createParser(content);
+		try {
+			final Parsed parsed = new Parsed();
+			expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String name = parser.getCurrentName();
+				final JsonToken value = parser.nextToken();
+				if ("classes".equals(name)) {
+					readClasses(parser, value, parsed.classes);
+				} else if ("encoding".equals(name)) {
+					parsed.encoding = value == JsonToken.VALUE_NULL ? null : readString(parser, value);
+				} else {
+					throw new JsonParseException(parser, "Unknown configuration property " + name);
+				}
+			}
+			return parsed;
+		} finally {
+			parser.close();
+		}
+	}
+
+	private static void readClasses(final JsonParser parser, final JsonToken value, final Map<String, ClassEntry> classes)
+			throws IOException {
+		if (value == JsonToken.VALUE_NULL) {
+			return;
+		}
+		expect(parser, value, JsonToken.START_OBJECT);
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String name = parser.getCurrentName();
+			classes.put(name, readClass(parser, parser.nextToken()));
+		}
+	}
+
+	private static ClassEntry readClass(final JsonParser parser, final JsonToken value) throws IOException {
+		final ClassEntry clazz = new ClassEntry();
+		if (value == JsonToken.VALUE_NULL) {
+			return clazz;
+		}
+		expect(parser, value, JsonToken.START_OBJECT);
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String name = parser.getCurrentName();
+			final JsonToken token = parser.nextToken();
+			if ("classAnnotations".equals(name)) {
+				clazz.classAnnotations = readList(parser, token);
+			} else if ("fieldAnnotations".equals(name)) {
+				readMap(parser, token, clazz.fieldAnnotations);
+			} else if ("methodAnnotations".equals(name)) {
+				readMap(parser, token, clazz.methodAnnotations);
+			} else {
+				throw new JsonParseException(parser, "Unknown class property " + name);
+			}
+		}
+		return clazz;
+	}
+
+	private static void readMap(final JsonParser parser, final JsonToken value, final Map<String, List<String>> map)
+			throws IOException {
+		if (value == JsonToken.VALUE_NULL) {
+			return;
+		}
+		expect(parser, value, JsonToken.START_OBJECT);
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			final String key = parser.getCurrentName();
+			map.put(key, readList(parser, parser.nextToken()));
+		}
+	}
+
+	private static List<String> readList(final JsonParser parser, final JsonToken value) throws IOException {
+		if (value == JsonToken.VALUE_NULL) {
+			return Collections.emptyList();
+		}
+		expect(parser, value, JsonToken.START_ARRAY);
+		final List<String> list = new ArrayList<String>(2);
+		JsonToken token;
+		while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+			list.add(readString(parser, token));
+		}
+		return list;
+	}
+
+	private static String readString(final JsonParser parser, final JsonToken value) throws IOException {
+		expect(parser, value, JsonToken.VALUE_STRING);
+		return parser.getText();
+	}
+
+	private static void expect(final JsonParser parser, final JsonToken actual, final JsonToken expected)
+			throws JsonParseException {
+		if (actual != expected) {
+			throw new JsonParseException(parser, "Expected " + expected + " but was " + actual);
+		}
+	}
+
+	/*
+	 * One configuration file as read, before it is merged with the others.
+	 */
+	private static class Parsed {
+		private final Map<String, ClassEntry> classes = new HashMap<String, ClassEntry>();
+		private String encoding;
+	}
+
+	private static class ClassEntry {
+		private List<String> classAnnotations;
+		private final Map<String, List<String>> fieldAnnotations = new HashMap<String, List<String>>();
+		private final Map<String, List<String>> methodAnnotations = new HashMap<String, List<String>>();
+
+		private void override(final ClassEntry later) {
+			if (later.classAnnotations != null) {
+				classAnnotations = later.classAnnotations;
+			}
+			fieldAnnotations.putAll(later.fieldAnnotations);
+			methodAnnotations.putAll(later.methodAnnotations);
+		}
+
+		private ClazzContainer toClazzContainer(final SourceInterner interner, final AnnotationPool pool) {
+			return ClazzContainer.of(
+					classAnnotations != null ? classAnnotations : Collections.<String> emptyList(), fieldAnnotations,
+					methodAnnotations, interner, pool);
+		}
+	}
+}
@@ -0,0 +1,354 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+
+import codegen.InternalConfiguration.ClazzContainer;
+
+/*
+ * A compiled configuration in a binary file that is memory mapped when read back. The file starts with a header and an
+ * index of class names with the offset of each class, the annotations of a class are only read and parsed the first
+ * time the class is asked for. Reading one therefore costs the index, not the whole configuration. The annotations are
+ * kept as configured and compiled on first use like those of a JSON configuration.
+ *
+ * Layout, all numbers big endian and all strings an int length followed by UTF-8 bytes:
+ * magic, format version, engine version, a CRC-32 of the rest of the file, encoding, class count, (class name, offset)
+ * per class, then per class the class annotations, the field annotations and the method annotations. A list is a count
+ * followed by its strings, a map a count followed by key and list. The checksum is verified when the file is mapped, so
+ * a damaged class is found before any class is asked for.
+ */
+final class ConfigurationSnapshot {
+
+	static final int FORMAT_VERSION = 2;
+	/*
+	 * The format and the project version, a snapshot written by another version is not trusted. Null when the version
+	 * is not known, snapshots are then neither read nor written.
+	 */
+	static final String ENGINE_VERSION = engineVersion();
+
+	private static final int MAGIC = 0x43475331;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private ConfigurationSnapshot() {
+	}
+
+	static boolean isEnabled() {
+		return ENGINE_VERSION != null;
+	}
+
+	/*
+	 * The name of the snapshot of configuration content with the given hash.
+	 */
+	static String fileName(final String contentHash) {
+		return contentHash + "-" + ENGINE_VERSION + ".snapshot";
+	}
+
+	static void write(final InternalConfiguration config, final File file) throws IOException {
+		Utils.assertParamNotNull(config, "config");
+		Utils.assertParamNotNull(file, "file");
+		if (!isEnabled()) {
+			throw new IOException("The engine version is not known, a snapshot can't be written");
+		}
+		final Map<String, byte[]> classes = new TreeMap<String, byte[]>();
+		for (String name : config.getClassNames()) {
+			classes.put(name, encode(config.getClass(name)));
+		}
+
+		final File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+			throw new IOException("Couldn't create " + directory);
+		}
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream body = new DataOutputStream(bytes);
+		writeString(body, config.getEncoding().name());
+		body.writeInt(classes.size());
+		int offset = 0;
+		for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+			writeString(body, entry.getKey());
+			body.writeInt(offset);
+			offset += entry.getValue().length;
+		}
+		for (byte[] clazz : classes.values()) {
+			body.write(clazz);
+		}
+		body.flush();
+		final CRC32 checksum = new CRC32();
+		checksum.update(bytes.toByteArray());
+
+		final Path temp = Files.createTempFile(directory.toPath(), file.getName(), ".tmp");
+		try {
+			final DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temp, StandardOpenOption.WRITE)));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				writeString(out, ENGINE_VERSION);
+				out.writeLong(checksum.getValue());
+				bytes.writeTo(out);
+			} finally {
+				out.close();
+			}
+			CodeGenerator.moveAtomically(temp, file.toPath());
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/*
+	 * Null when the file is not a snapshot of this version, a damaged file fails with an IOException.
+	 */
+	static InternalConfiguration read(final File file) throws IOException {
+		Utils.assertParamNotNull(file, "file");
+		final ByteBuffer buffer;
+		final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+		try {
+			if (!isEnabled() || buffer.remaining() < 8 || buffer.getInt() != MAGIC
+					|| buffer.getInt() != FORMAT_VERSION || !ENGINE_VERSION.equals(readString(buffer))) {
+				return null;
+			}
+			final long expected = buffer.getLong();
+			final CRC32 checksum = new CRC32();
+			checksum.update(buffer.duplicate());
+			if (checksum.getValue() != expected) {
+				throw new IOException("Damaged configuration snapshot " + file);
+			}
+			final Charset encoding = Charset.forName(readString(buffer));
+			final int count = buffer.getInt();
+			final Map<String, Integer> index = new HashMap<String, Integer>(count * 4 / 3 + 1);
+			for (int i = 0; i < count; i++) {
+				final String name = readString(buffer);
+				index.put(name, buffer.getInt());
+			}
+			return InternalConfiguration.lazy(new SnapshotClasses(file, buffer.slice(), index, new AnnotationPool()),
+					encoding);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated configuration snapshot " + file, e);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Damaged configuration snapshot " + file, e);
+		}
+	}
+
+	private static String engineVersion() {
+		final Properties properties = new Properties();
+		try {
+			final InputStream in = ConfigurationSnapshot.class.getResourceAsStream("codegen.properties");
+			if (in == null) {
+				return null;
+			}
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+		final String version = properties.getProperty("version");
+		// an unfiltered resource still has the placeholder
+		if (version == null || version.isEmpty() || version.startsWith("${")) {
+			return null;
+		}
+		return FORMAT_VERSION + "-" + version;
+	}
+
+	private static byte[] encode(final ClazzContainer clazz) throws IOException {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DataOutputStream out = new DataOutputStream(bytes);
+		writeList(out, clazz.getClassAnnotationSources());
+		writeMap(out, clazz.getFieldAnnotationSources());
+		writeMap(out, clazz.getMethodAnnotationSources());
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void writeMap(final DataOutputStream out, final Map<String, List<String>> map) throws IOException {
+		out.writeInt(map.size());
+		for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+			writeString(out, entry.getKey());
+			writeList(out, entry.getValue());
+		}
+	}
+
+	private static void writeList(final DataOutputStream out, final List<String> list) throws IOException {
+		out.writeInt(list.size());
+		for (String annotation : list) {
+			writeString(out, annotation);
+		}
+	}
+
+	private static void writeString(final DataOutputStream out, final String string) throws IOException {
+		final byte[] bytes = string.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(final ByteBuffer buffer) {
+		final int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new IllegalArgumentException("String of " + length + " bytes at " + buffer.position());
+		}
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	private static ClazzContainer decode(final ByteBuffer buffer, final AnnotationPool pool) {
+		final List<String> classAnnotations = readList(buffer);
+		final Map<String, List<String>> fieldAnnotations = readMap(buffer);
+		final Map<String, List<String>> methodAnnotations = readMap(buffer);
+		// classes are decoded one at a time and by any thread, each shares its own names and lists
+		return ClazzContainer.of(classAnnotations, fieldAnnotations, methodAnnotations, new SourceInterner(), pool);
+	}
+
+	private static Map<String, List<String>> readMap(final ByteBuffer buffer) {
+		final int size = buffer.getInt();
+		final Map<String, List<String>> map = new HashMap<String, List<String>>();
+		for (int i = 0; i < size; i++) {
+			final String key = readString(buffer);
+			map.put(key, readList(buffer));
+		}
+		return map;
+	}
+
+	private static List<String> readList(final ByteBuffer buffer) {
+		final int size = buffer.getInt();
+		final List<String> list = new ArrayList<String>(Math.min(size, buffer.remaining()));
+		for (int i = 0; i < size; i++) {
+			list.add(readString(buffer));
+		}
+		return list;
+	}
+
+	/*
+	 * The classes of a snapshot. The index is read up front, a class is decoded from the mapped data on the first get
+	 * and kept from then on. Only iterating the entries decodes every class.
+	 */
+	private static class SnapshotClasses extends AbstractMap<String, ClazzContainer> {
+		private final File file;
+		private final ByteBuffer data;
+		private final Map<String, Integer> index;
+		private final AnnotationPool pool;
+		private final ConcurrentMap<String, ClazzContainer> decoded = new ConcurrentHashMap<String, ClazzContainer>();
+
+		SnapshotClasses(final File file, final ByteBuffer data, final Map<String, Integer> index,
+				final AnnotationPool pool) {
+			this.file = file;
+			this.data = data;
+			this.index = index;
+			this.pool = pool;
+		}
+
+		@Override
+		public ClazzContainer get(final Object key) {
+			ClazzContainer clazz = decoded.get(key);
+			if (clazz != null) {
+				return clazz;
+			}
+			final Integer offset = index.get(key);
+			if (offset == null) {
+				return null;
+			}
+			final ByteBuffer buffer = data.duplicate();
+			try {
+				buffer.position(offset.intValue());
+				clazz = decode(buffer, pool);
+			} catch (RuntimeException e) {
+				throw new IllegalStateException("Damaged configuration snapshot " + file + " at " + key, e);
+			}
+			final ClazzContainer existing = decoded.putIfAbsent((String) key, clazz);
+			return existing != null ? existing : clazz;
+		}
+
+		@Override
+		public boolean containsKey(final Object key) {
+			return index.containsKey(key);
+		}
+
+		@Override
+		public Set<String> keySet() {
+			return Collections.unmodifiableSet(index.keySet());
+		}
+
+		@Override
+		public int size() {
+			return index.size();
+		}
+
+		@Override
+		public Set<Map.Entry<String, ClazzContainer>> entrySet() {
+			return new AbstractSet<Map.Entry<String, ClazzContainer>>() {
+				@Override
+				public Iterator<Map.Entry<String, ClazzContainer>> iterator() {
+					final Iterator<String> names = index.keySet().iterator();
+					return new Iterator<Map.Entry<String, ClazzContainer>>() {
+						@Override
+						public boolean hasNext() {
+							return names.hasNext();
+						}
+
+						@Override
+						public Map.Entry<String, ClazzContainer> next() {
+							final String name = names.next();
+							return new SimpleImmutableEntry<String, ClazzContainer>(name, get(name));
+						}
+
+						@Override
+						public void remove() {
+							throw new UnsupportedOperationException();
+						}
+					};
+				}
+
+				@Override
+				public int size() {
+					return index.size();
+				}
+			};
+		}
+	}
+}
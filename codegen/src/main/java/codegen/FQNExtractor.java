@@ -17,16 +17,31 @@ package codegen;
 
 import com.github.javaparser.ast.Node;
 
+/*
+ * Finds the name of the type enclosing any node by walking its parents. One extractor remembers every type it has
+ * resolved, reuse it when asking for many nodes of the same tree.
+ */
 public class FQNExtractor {
 
 	private final Node startNode;
+	private final FQNVisitor visitor = new FQNVisitor();
+
+	public FQNExtractor() {
+		this.startNode = null;
+	}
 
 	public FQNExtractor(final Node startNode) {
 		this.startNode = startNode;
 	}
 
 	public String find() {
-		return startNode.accept(new FQNVisitor(startNode), null);
+		return find(startNode);
+	}
+
+	public String find(final Node node) {
+		Utils.assertParamNotNull(node, "node");
+		FQNVisitor.checkStartNode(node);
+		return node.accept(visitor, null);
 	}
 
 }
@@ -15,6 +15,9 @@
 */
 package codegen;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
+
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.ImportDeclaration;
 import com.github.javaparser.ast.Node;
@@ -106,12 +109,31 @@ import com.github.javaparser.ast.visitor.GenericVisitor;
 
 class FQNVisitor implements GenericVisitor<String, Void> {
 
+	// names of the type declarations already resolved, by identity since nodes compare by structure
+	private final Map<Node, String> resolved = new IdentityHashMap<Node, String>();
+
 	public FQNVisitor(final Node startNode) {
+		checkStartNode(startNode);
+	}
+
+	FQNVisitor() {
+	}
+
+	static void checkStartNode(final Node startNode) {
 		if (startNode instanceof CompilationUnit) {
 			throw new IllegalStateException("Can't find out the FQN at the root node");
 		}
 	}
 
+	private String typeName(final Node n, final String name, final Void arg) {
+		String fqn = resolved.get(n);
+		if (fqn == null) {
+			fqn = n.getParentNode().accept(this, arg) + "." + name;
+			resolved.put(n, fqn);
+		}
+		return fqn;
+	}
+
 	private String noop(Node n, Void arg) {
 		final Node parentNode = n.getParentNode();
 		if (parentNode == null) {
@@ -129,13 +151,11 @@ class FQNVisitor implements GenericVisitor<String, Void> {
 	}
 
 	public String visit(ClassOrInterfaceDeclaration n, Void arg) {
-		final String parent = n.getParentNode().accept(this, arg);
-		return parent + "." + n.getName();
+		return typeName(n, n.getName(), arg);
 	}
 
 	public String visit(EnumDeclaration n, Void arg) {
-		final String parent = n.getParentNode().accept(this, arg);
-		return parent + "." + n.getName();
+		return typeName(n, n.getName(), arg);
 	}
 
 	public String visit(ImportDeclaration n, Void arg) {
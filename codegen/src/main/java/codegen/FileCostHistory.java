@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Remembers how long each file took in the previous run, so the next run can start with the slowest files. Files
+ * without history are estimated from their size, scaled by the time per byte seen for the files that have history.
+ *
+ * Files are keyed by their path relative to the directory of the history file, so the history still applies when the
+ * project is checked out or built somewhere else. The file is replaced in one move, a killed or concurrent build never
+ * leaves half of it behind. Only the files of the batch are saved, so files that came and went don't pile up.
+ */
+class FileCostHistory {
+
+	private final File historyFile;
+	private final Path base;
+	private final Map<String, Long> costs = new ConcurrentHashMap<String, Long>();
+
+	private FileCostHistory(final File historyFile) {
+		this.historyFile = historyFile.getAbsoluteFile();
+		this.base = this.historyFile.getParentFile().toPath().normalize();
+	}
+
+	static FileCostHistory load(final File historyFile) throws IOException {
+		Utils.assertParamNotNull(historyFile, "historyFile");
+		final FileCostHistory history = new FileCostHistory(historyFile);
+		if (historyFile.isFile()) {
+			final Properties properties = new Properties();
+			final InputStream is = Files.newInputStream(historyFile.toPath());
+			try {
+				properties.load(is);
+			} finally {
+				is.close();
+			}
+			for (String key : properties.stringPropertyNames()) {
+				try {
+					history.costs.put(key, Long.valueOf(properties.getProperty(key)));
+				} catch (NumberFormatException e) {
+					// a damaged entry only costs us the estimate for that file
+				}
+			}
+		}
+		return history;
+	}
+
+	static long size(final File file) {
+		return file != null ? Math.max(1, file.length()) : 1;
+	}
+
+	static long[] sizes(final List<File> files) {
+		final long[] sizes = new long[files.size()];
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = size(files.get(i));
+		}
+		return sizes;
+	}
+
+	long[] estimate(final List<File> files) {
+		final long[] sizes = sizes(files);
+		final long[] estimates = new long[files.size()];
+		long knownNanos = 0;
+		long knownBytes = 0;
+		for (int i = 0; i < files.size(); i++) {
+			final Long cost = files.get(i) != null ? costs.get(key(files.get(i))) : null;
+			if (cost != null) {
+				estimates[i] = cost;
+				knownNanos += cost;
+				knownBytes += sizes[i];
+			} else {
+				estimates[i] = -1;
+			}
+		}
+		final double nanosPerByte = knownBytes > 0 ? (double) knownNanos / knownBytes : 1;
+		for (int i = 0; i < estimates.length; i++) {
+			if (estimates[i] < 0) {
+				estimates[i] = (long) (sizes[i] * nanosPerByte);
+			}
+		}
+		return estimates;
+	}
+
+	void record(final FileResult result) {
+		if (result.getFile() != null && result.getStatus() != FileResult.Status.FAILED) {
+			costs.put(key(result.getFile()), result.getTotalTime(TimeUnit.NANOSECONDS));
+		}
+	}
+
+	/*
+	 * Saves the costs of the given files, the batch that was run, and drops the rest.
+	 */
+	void save(final List<File> files) throws IOException {
+		final Set<String> batch = new HashSet<String>(files.size() * 4 / 3 + 1);
+		for (File file : files) {
+			if (file != null) {
+				batch.add(key(file));
+			}
+		}
+		final Properties properties = new Properties();
+		for (Map.Entry<String, Long> entry : costs.entrySet()) {
+			if (batch.contains(entry.getKey())) {
+				properties.setProperty(entry.getKey(), entry.getValue().toString());
+			}
+		}
+		final File parent = historyFile.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+			throw new IOException("Couldn't create directory " + parent);
+		}
+		final Path temp = Files.createTempFile(parent.toPath(), historyFile.getName(), ".tmp");
+		try {
+			final OutputStream os = Files.newOutputStream(temp);
+			try {
+				properties.store(os, "codegen per file processing time in nanoseconds");
+			} finally {
+				os.close();
+			}
+			CodeGenerator.moveAtomically(temp, historyFile.toPath());
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private String key(final File file) {
+		final Path path = file.toPath().toAbsolutePath().normalize();
+		try {
+			return base.relativize(path).toString().replace(File.separatorChar, '/');
+		} catch (IllegalArgumentException e) {
+			// another root than the history file, nothing to be relative to
+			return path.toString();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class FileResult {
+
+	public enum Status {
+		CHANGED, UNCHANGED, FAILED
+	}
+
+	private final File file;
+	private final Status status;
+	private final Exception error;
+	private final long readNanos;
+	private final long transformNanos;
+	private final long writeNanos;
+	private final List<String> changes;
+
+	FileResult(final File file, final Status status, final Exception error, final long readNanos,
+			final long transformNanos, final long writeNanos) {
+		this(file, status, error, readNanos, transformNanos, writeNanos, Collections.<String> emptyList());
+	}
+
+	FileResult(final File file, final Status status, final Exception error, final long readNanos,
+			final long transformNanos, final long writeNanos, final List<String> changes) {
+		Utils.assertParamNotNull(status, "status");
+		Utils.assertParamNotNull(changes, "changes");
+		this.changes = changes;
+		this.file = file;
+		this.status = status;
+		this.error = error;
+		this.readNanos = readNanos;
+		this.transformNanos = transformNanos;
+		this.writeNanos = writeNanos;
+	}
+
+	static FileResult failed(final File file, final Exception error, final long readNanos, final long transformNanos,
+			final long writeNanos) {
+		Utils.assertParamNotNull(error, "error");
+		return new FileResult(file, Status.FAILED, error, readNanos, transformNanos, writeNanos);
+	}
+
+	/*
+	 * A file that was changed, unchanged when the file had the content already and wasn't written.
+	 */
+	static FileResult written(final File file, final boolean written, final long readNanos, final long transformNanos,
+			final long writeNanos, final List<String> changes) {
+		if (!written) {
+			return new FileResult(file, Status.UNCHANGED, null, readNanos, transformNanos, writeNanos);
+		}
+		return new FileResult(file, Status.CHANGED, null, readNanos, transformNanos, writeNanos, changes);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public boolean hasChanged() {
+		return status == Status.CHANGED;
+	}
+
+	public Exception getError() {
+		return error;
+	}
+
+	/*
+	 * The declarations that got annotations, as type, type#field or type#method(parameters). Empty unless changed.
+	 */
+	public List<String> getChanges() {
+		return changes;
+	}
+
+	public long getReadTime(final TimeUnit unit) {
+		return unit.convert(readNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public long getTransformTime(final TimeUnit unit) {
+		return unit.convert(transformNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public long getWriteTime(final TimeUnit unit) {
+		return unit.convert(writeNanos, TimeUnit.NANOSECONDS);
+	}
+
+	public long getTotalTime(final TimeUnit unit) {
+		return unit.convert(readNanos + transformNanos + writeNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		return file + "->" + status + (error != null ? " " + error.getMessage() : "");
+	}
+}
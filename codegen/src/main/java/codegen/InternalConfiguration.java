@@ -15,30 +15,131 @@
 */
 package codegen;
 
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import com.github.javaparser.ParseException;
 import com.github.javaparser.ast.expr.AnnotationExpr;
 
 class InternalConfiguration {
 
+	static final Charset DEFAULT_ENCODING = Charset.forName("UTF-8");
+
 	public InternalConfiguration(Map<String, ClazzContainer> classes) {
-		this.classes.putAll(classes);
+		this(classes, DEFAULT_ENCODING);
+	}
+
+	public InternalConfiguration(Map<String, ClazzContainer> classes, Charset encoding) {
+		this(encoding, Collections.unmodifiableMap(new HashMap<String, ClazzContainer>(notNull(classes))));
 	}
 
-	private final Map<String, ClazzContainer> classes = new HashMap<String, ClazzContainer>();
+	private InternalConfiguration(Charset encoding, Map<String, ClazzContainer> classes) {
+		Utils.assertParamNotNull(encoding, "encoding");
+		this.classes = classes;
+		this.encoding = encoding;
+		this.types = TypeTrie.build(this.classes);
+	}
+
+	/*
+	 * Uses classes as it is instead of copying it, for a map that builds its values on the first get. Only the names
+	 * are needed up front.
+	 */
+	static InternalConfiguration lazy(Map<String, ClazzContainer> classes, Charset encoding) {
+		return new InternalConfiguration(encoding, Collections.unmodifiableMap(notNull(classes)));
+	}
+
+	private static Map<String, ClazzContainer> notNull(Map<String, ClazzContainer> classes) {
+		Utils.assertParamNotNull(classes, "classes");
+		return classes;
+	}
+
+	private final Map<String, ClazzContainer> classes;
+	private final Charset encoding;
+	private final TypeTrie types;
+
+	Charset getEncoding() {
+		return encoding;
+	}
+
+	TypeTrie getTypes() {
+		return types;
+	}
+
+	Set<String> getClassNames() {
+		return classes.keySet();
+	}
 
 	ClazzContainer getClass(String name) {
 		return classes.get(name);
 	}
 
+	/*
+	 * Compiles every configured annotation, for failing fast on a syntax error instead of when a source first reaches
+	 * it. The classes are compiled in parallel, the error reported is the one of the first class in name order.
+	 */
+	void validate() throws ParseException {
+		final String[] names = getClassNames().toArray(new String[0]);
+		Arrays.sort(names);
+		final String[] errors = new String[names.length];
+		ForkJoinPool.commonPool().invoke(new ValidateTask(names, errors, 0, names.length));
+		for (int i = 0; i < names.length; i++) {
+			if (errors[i] != null) {
+				throw new ParseException("Invalid annotation in the configuration of " + names[i] + ": " + errors[i]);
+			}
+		}
+	}
+
+	private class ValidateTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private static final int GRAIN = 256;
+
+		private final String[] names;
+		private final String[] errors;
+		private final int from;
+		private final int to;
+
+		ValidateTask(final String[] names, final String[] errors, final int from, final int to) {
+			this.names = names;
+			this.errors = errors;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= GRAIN) {
+				for (int i = from; i < to; i++) {
+					try {
+						InternalConfiguration.this.getClass(names[i]).compile();
+					} catch (ParseException e) {
+						errors[i] = e.getMessage();
+					}
+				}
+				return;
+			}
+			final int middle = (from + to) >>> 1;
+			invokeAll(new ValidateTask(names, errors, from, middle), new ValidateTask(names, errors, middle, to));
+		}
+	}
+
+	/*
+	 * The annotations of one configured class. They are kept as configured and each list is compiled the first time it
+	 * is asked for, a class that no source reaches is never compiled.
+	 */
 	static class ClazzContainer {
-		private final List<AnnotationExpr> classAnnotations = new ArrayList<AnnotationExpr>();
-		private final Map<String, List<AnnotationExpr>> methodAnnotations = new HashMap<String, List<AnnotationExpr>>();
-		private final Map<String, List<AnnotationExpr>> fieldAnnotations = new HashMap<String, List<AnnotationExpr>>();
+		private final Annotations classAnnotations;
+		private final Map<String, Annotations> methodAnnotations;
+		private final Map<String, Annotations> fieldAnnotations;
+		private final MethodIndex<Annotations> methods;
 
 		public ClazzContainer(final List<AnnotationExpr> classAnnotations,
 				final Map<String, List<AnnotationExpr>> fieldAnnotations,
@@ -46,30 +147,192 @@ class InternalConfiguration {
 			Utils.assertParamNotNull(classAnnotations, "classAnnotations");
 			Utils.assertParamNotNull(fieldAnnotations, "fieldAnnotations");
 			Utils.assertParamNotNull(methodAnnotations, "methodAnnotations");
-			this.classAnnotations.addAll(classAnnotations);
-			this.fieldAnnotations.putAll(fieldAnnotations);
-			this.methodAnnotations.putAll(methodAnnotations);
+			this.classAnnotations = Annotations.compiled(classAnnotations);
+			this.fieldAnnotations = compiled(fieldAnnotations);
+			this.methodAnnotations = compiled(methodAnnotations);
+			this.methods = MethodIndex.build(this.methodAnnotations);
+		}
+
+		private ClazzContainer(final Annotations classAnnotations, final Map<String, Annotations> fieldAnnotations,
+				final Map<String, Annotations> methodAnnotations) {
+			this.classAnnotations = classAnnotations;
+			this.fieldAnnotations = fieldAnnotations;
+			this.methodAnnotations = methodAnnotations;
+			this.methods = MethodIndex.build(methodAnnotations);
+		}
+
+		/*
+		 * A class configured with the annotations as written, none of them is parsed until it is used.
+		 */
+		static ClazzContainer of(final List<String> classAnnotations, final Map<String, List<String>> fieldAnnotations,
+				final Map<String, List<String>> methodAnnotations) {
+			return of(classAnnotations, fieldAnnotations, methodAnnotations, new SourceInterner(),
+					new AnnotationPool());
+		}
+
+		/*
+		 * As above, sharing names and lists with the other classes of the interner and compiled annotations with the
+		 * other classes of the pool.
+		 */
+		static ClazzContainer of(final List<String> classAnnotations, final Map<String, List<String>> fieldAnnotations,
+				final Map<String, List<String>> methodAnnotations, final SourceInterner interner,
+				final AnnotationPool pool) {
+			Utils.assertParamNotNull(classAnnotations, "classAnnotations");
+			Utils.assertParamNotNull(fieldAnnotations, "fieldAnnotations");
+			Utils.assertParamNotNull(methodAnnotations, "methodAnnotations");
+			Utils.assertParamNotNull(interner, "interner");
+			Utils.assertParamNotNull(pool, "pool");
+			return new ClazzContainer(Annotations.of(classAnnotations, interner, pool),
+					sources(fieldAnnotations, interner, pool), sources(methodAnnotations, interner, pool));
+		}
+
+		private static Map<String, Annotations> compiled(final Map<String, List<AnnotationExpr>> map) {
+			final Map<String, Annotations> copy = new HashMap<String, Annotations>();
+			for (Map.Entry<String, List<AnnotationExpr>> entry : map.entrySet()) {
+				copy.put(entry.getKey(), Annotations.compiled(entry.getValue()));
+			}
+			return Collections.unmodifiableMap(copy);
+		}
+
+		private static Map<String, Annotations> sources(final Map<String, List<String>> map,
+				final SourceInterner interner, final AnnotationPool pool) {
+			if (map.isEmpty()) {
+				return Collections.emptyMap();
+			}
+			final Map<String, Annotations> copy = new HashMap<String, Annotations>(map.size() * 4 / 3 + 1);
+			for (Map.Entry<String, List<String>> entry : map.entrySet()) {
+				copy.put(interner.key(entry.getKey()), Annotations.of(entry.getValue(), interner, pool));
+			}
+			return Collections.unmodifiableMap(copy);
 		}
 
 		public List<AnnotationExpr> getClassAnnotations() {
-			return Collections.unmodifiableList(classAnnotations);
+			return classAnnotations.get();
 		}
 
 		public List<AnnotationExpr> getFieldAnnotations(String field) {
 			return getList(fieldAnnotations, field);
 		}
 
+		/*
+		 * The annotations of the method with this signature, matched the way MethodIndex describes.
+		 */
 		public List<AnnotationExpr> getMethodAnnotations(String method) {
-			return getList(methodAnnotations, method);
+			return get(methods.find(method));
 		}
 
-		private List<AnnotationExpr> getList(Map<String, List<AnnotationExpr>> map, String key) {
-			List<AnnotationExpr> list = map.get(key);
-			if (list == null) {
+		/*
+		 * Whether a method with this name and number of parameters can have configured annotations at all, if not
+		 * there is no need to look at its parameter types.
+		 */
+		boolean hasMethodAnnotations(String name, int arity) {
+			return methods.has(name, arity);
+		}
+
+		boolean hasMethodAnnotations(String name) {
+			return methods.has(name);
+		}
+
+		List<AnnotationExpr> getMethodAnnotations(String name, List<String> parameterTypes) {
+			return get(methods.find(name, parameterTypes));
+		}
+
+		private List<AnnotationExpr> getList(Map<String, Annotations> map, String key) {
+			return get(map.get(key));
+		}
+
+		private static List<AnnotationExpr> get(Annotations annotations) {
+			if (annotations == null) {
 				return Collections.emptyList();
 			}
-			return Collections.unmodifiableList(list);
+			return annotations.get();
+		}
+
+		List<String> getClassAnnotationSources() {
+			return classAnnotations.getSources();
+		}
+
+		Map<String, List<String>> getFieldAnnotationSources() {
+			return getSources(fieldAnnotations);
+		}
+
+		Map<String, List<String>> getMethodAnnotationSources() {
+			return getSources(methodAnnotations);
+		}
+
+		private static Map<String, List<String>> getSources(final Map<String, Annotations> map) {
+			final Map<String, List<String>> sources = new HashMap<String, List<String>>();
+			for (Map.Entry<String, Annotations> entry : map.entrySet()) {
+				sources.put(entry.getKey(), entry.getValue().getSources());
+			}
+			return sources;
+		}
+
+		void compile() throws ParseException {
+			classAnnotations.compile();
+			for (Annotations annotations : fieldAnnotations.values()) {
+				annotations.compile();
+			}
+			for (Annotations annotations : methodAnnotations.values()) {
+				annotations.compile();
+			}
+		}
+	}
+
+	/*
+	 * A list of configured annotations that is compiled at most once, by whichever thread asks for it first. The list
+	 * and the trees it compiles to come from the pool and are shared with every other member configured the same way.
+	 */
+	private static class Annotations {
+		private final List<String> sources;
+		private final AnnotationPool pool;
+		private volatile List<AnnotationExpr> compiled;
+
+		private Annotations(final List<String> sources, final AnnotationPool pool, final List<AnnotationExpr> compiled) {
+			this.sources = sources;
+			this.pool = pool;
+			this.compiled = compiled;
+		}
+
+		static Annotations of(final List<String> sources, final SourceInterner interner, final AnnotationPool pool) {
+			return new Annotations(interner.sources(sources), pool, null);
+		}
+
+		static Annotations compiled(final List<AnnotationExpr> compiled) {
+			return new Annotations(null, null, Collections.unmodifiableList(new ArrayList<AnnotationExpr>(compiled)));
 		}
 
+		List<String> getSources() {
+			if (sources != null) {
+				return sources;
+			}
+			final List<String> printed = new ArrayList<String>(compiled.size());
+			for (AnnotationExpr annotation : compiled) {
+				printed.add(annotation.toString());
+			}
+			return printed;
+		}
+
+		/*
+		 * An annotation that doesn't parse fails the source that reached it, validate reports it up front instead.
+		 */
+		List<AnnotationExpr> get() {
+			List<AnnotationExpr> list = compiled;
+			if (list == null) {
+				try {
+					list = compile();
+				} catch (ParseException e) {
+					throw new IllegalArgumentException("Invalid configured annotation in " + sources, e);
+				}
+			}
+			return list;
+		}
+
+		synchronized List<AnnotationExpr> compile() throws ParseException {
+			if (compiled == null) {
+				compiled = pool.compile(sources);
+			}
+			return compiled;
+		}
 	}
 }
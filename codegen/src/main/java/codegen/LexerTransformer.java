@@ -0,0 +1,752 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseException;
+import com.github.javaparser.ast.expr.AnnotationExpr;
+
+import codegen.InternalConfiguration.ClazzContainer;
+
+/*
+ * The LEXER engine. Tokenizes the source and reads only what the configuration can refer to: the package, type
+ * declarations, the first declarator name of fields, method signatures and the annotations in front of each of them.
+ * Bodies, initializers and everything else are skipped by matching brackets. The changes are the ones
+ * ClassAnnotationVisitor would make, applied through SourceSplicer, so the result is the same as the AST engine's
+ * SPLICE output.
+ *
+ * Whenever the source has something the scanner doesn't understand, or something only the tree can answer (unicode
+ * escapes, type annotations, local classes where nested types are configured), it throws Unsupported and the caller
+ * parses the file instead. One instance handles one source.
+ */
+class LexerTransformer {
+
+	private static final int EOF = 0;
+	private static final int IDENTIFIER = 1;
+	private static final int SYMBOL = 2;
+	private static final int LITERAL = 3;
+
+	private static final String[] MODIFIERS = { "public", "protected", "private", "static", "final", "abstract",
+			"transient", "volatile", "synchronized", "native", "strictfp", "default" };
+
+	private static final Unsupported UNSUPPORTED = new Unsupported();
+
+	private final InternalConfiguration config;
+	private final String source;
+	private final int length;
+	private final SourceSplicer splicer = new SourceSplicer();
+	private final List<String> changes = new ArrayList<String>();
+	private final AnnotationMerger merger;
+
+	// the current token
+	private int pos;
+	private int kind;
+	private int start;
+	private int end;
+	private char symbol;
+	// where the last identifier and the last qualified name ended
+	private int lastEnd;
+	private int nameEnd;
+
+	LexerTransformer(final InternalConfiguration config, final String source) {
+		this(config, source, MergeStrategy.REPLACE);
+	}
+
+	LexerTransformer(final InternalConfiguration config, final String source, final MergeStrategy strategy) {
+		Utils.assertParamNotNull(config, "config");
+		Utils.assertParamNotNull(source, "source");
+		this.config = config;
+		this.source = source;
+		this.length = source.length();
+		this.merger = new AnnotationMerger(strategy);
+	}
+
+	/*
+	 * Returns the changed source, or null when nothing in it is configured.
+	 */
+	String transform() throws Unsupported {
+		if (source.indexOf("\\u") >= 0) {
+			// a unicode escape can stand for anything, even the quote ending a literal
+			throw UNSUPPORTED;
+		}
+		next();
+		TypeTrie scope = config.getTypes();
+		String packageName = null;
+		Modifiers modifiers = modifiers();
+		if (isWord("package")) {
+			next();
+			packageName = qualifiedName();
+			merger.setPackage(packageName);
+			scope = scope.find(packageName);
+			expect(';');
+			if (scope == null) {
+				return null;
+			}
+			modifiers = modifiers();
+		}
+		while (isWord("import")) {
+			next();
+			// static imports resolve no annotation names
+			final boolean type = !isWord("static");
+			boolean onDemand = false;
+			final StringBuilder name = new StringBuilder();
+			while (!isSymbol(';')) {
+				checkNotEof();
+				if (kind == IDENTIFIER) {
+					name.append(text());
+				} else if (isSymbol('.')) {
+					name.append('.');
+				} else if (isSymbol('*')) {
+					onDemand = true;
+				}
+				next();
+			}
+			next();
+			if (type && onDemand) {
+				merger.addOnDemandImport(name.substring(0, name.length() - 1));
+			} else if (type) {
+				merger.addImport(name.toString());
+			}
+			modifiers = modifiers();
+		}
+		while (kind != EOF) {
+			if (isSymbol(';')) {
+				next();
+			} else {
+				typeDeclaration(scope, packageName, modifiers);
+			}
+			modifiers = modifiers();
+		}
+		if (splicer.isEmpty()) {
+			return null;
+		}
+		final String spliced = splicer.apply(source);
+		if (spliced == null) {
+			throw UNSUPPORTED;
+		}
+		return spliced;
+	}
+
+	/*
+	 * The changed declarations as type, type#field or type#method(parameters).
+	 */
+	List<String> getChanges() {
+		return changes;
+	}
+
+	private void typeDeclaration(final TypeTrie scope, final String scopeName, final Modifiers modifiers)
+			throws Unsupported {
+		boolean enumType = false;
+		boolean annotationType = false;
+		if (isWord("class") || isWord("interface")) {
+			next();
+		} else if (isWord("enum")) {
+			enumType = true;
+			next();
+		} else if (isSymbol('@')) {
+			next();
+			if (!isWord("interface")) {
+				throw UNSUPPORTED;
+			}
+			annotationType = true;
+			next();
+		} else {
+			throw UNSUPPORTED;
+		}
+		final String name = identifier();
+		final String typeName = scopeName != null ? scopeName + "." + name : name;
+		final TypeTrie node = scope != null ? scope.child(name) : null;
+		int parens = 0;
+		while (!isSymbol('{') || parens > 0) {
+			checkNotEof();
+			if (isSymbol('(')) {
+				parens++;
+			} else if (isSymbol(')')) {
+				parens--;
+			}
+			next();
+		}
+		if (node == null || annotationType) {
+			skipBlock(null);
+			return;
+		}
+		final ClazzContainer clazz = node.getClazz();
+		if (clazz != null && !clazz.getClassAnnotations().isEmpty()) {
+			change(modifiers, clazz.getClassAnnotations(), typeName);
+		}
+		expect('{');
+		if (enumType) {
+			enumConstants();
+		}
+		while (!isSymbol('}')) {
+			checkNotEof();
+			if (isSymbol(';')) {
+				next();
+			} else {
+				member(node, typeName, clazz);
+			}
+		}
+		next();
+	}
+
+	private void enumConstants() throws Unsupported {
+		while (true) {
+			modifiers();
+			if (isSymbol('}')) {
+				return;
+			}
+			if (isSymbol(';')) {
+				next();
+				return;
+			}
+			identifier();
+			if (isSymbol('(')) {
+				skipParentheses();
+			}
+			if (isSymbol('{')) {
+				skipBlock(null);
+			}
+			if (isSymbol(',')) {
+				next();
+			} else if (!isSymbol(';') && !isSymbol('}')) {
+				throw UNSUPPORTED;
+			}
+		}
+	}
+
+	private void member(final TypeTrie node, final String typeName, final ClazzContainer clazz) throws Unsupported {
+		final Modifiers modifiers = modifiers();
+		if (isWord("class") || isWord("interface") || isWord("enum") || isSymbol('@')) {
+			typeDeclaration(node, typeName, modifiers);
+			return;
+		}
+		if (isSymbol('{')) {
+			skipBlock(node);
+			return;
+		}
+		if (isSymbol('<')) {
+			skipTypeParameters();
+		}
+		if (kind == IDENTIFIER && nextIsSymbol('(')) {
+			// a constructor
+			next();
+			skipParentheses();
+			skipToBody();
+			skipBlock(node);
+			return;
+		}
+		type(null);
+		final String name = identifier();
+		if (isSymbol('(')) {
+			final List<String> types = clazz != null && clazz.hasMethodAnnotations(name)
+					? new ArrayList<String>() : null;
+			final int arity = parameters(types);
+			if (types != null && clazz.hasMethodAnnotations(name, arity)) {
+				final List<AnnotationExpr> configured = clazz.getMethodAnnotations(name, types);
+				if (!configured.isEmpty()) {
+					change(modifiers, configured, typeName + "#" + signature(name, types));
+				}
+			}
+			if (skipToBody()) {
+				skipBlock(node);
+			} else {
+				next();
+			}
+		} else {
+			if (clazz != null) {
+				final List<AnnotationExpr> configured = clazz.getFieldAnnotations(name);
+				if (!configured.isEmpty()) {
+					change(modifiers, configured, typeName + "#" + name);
+				}
+			}
+			skipFieldRest();
+		}
+	}
+
+	/*
+	 * Appends the type as the printer would write it, so that method signatures match the AST engine.
+	 */
+	private void type(final StringBuilder out) throws Unsupported {
+		if (isSymbol('@')) {
+			throw UNSUPPORTED;
+		}
+		append(out, identifier());
+		while (true) {
+			if (isSymbol('<')) {
+				typeArguments(out);
+				if (isSymbol('.') && !nextIsSymbol('.')) {
+					// the printer writes Outer<T>.Inner differently than it is written
+					throw UNSUPPORTED;
+				}
+			} else if (isSymbol('.') && !nextIsSymbol('.')) {
+				next();
+				append(out, ".");
+				append(out, identifier());
+			} else {
+				break;
+			}
+		}
+		while (isSymbol('[')) {
+			next();
+			expect(']');
+			append(out, "[]");
+		}
+	}
+
+	private void typeArguments(final StringBuilder out) throws Unsupported {
+		expect('<');
+		append(out, "<");
+		while (true) {
+			if (isSymbol('?')) {
+				next();
+				append(out, "?");
+				if (isWord("extends") || isWord("super")) {
+					append(out, " " + text() + " ");
+					next();
+					type(out);
+				}
+			} else {
+				type(out);
+			}
+			if (isSymbol(',')) {
+				next();
+				append(out, ", ");
+			} else {
+				expect('>');
+				append(out, ">");
+				return;
+			}
+		}
+	}
+
+	/*
+	 * Skips the parameter list and returns the number of parameters, the types are only collected into types if it
+	 * isn't null.
+	 */
+	private int parameters(final List<String> types) throws Unsupported {
+		expect('(');
+		if (isSymbol(')')) {
+			next();
+			return 0;
+		}
+		int arity = 0;
+		while (true) {
+			modifiers();
+			final StringBuilder type = types != null ? new StringBuilder() : null;
+			type(type);
+			arity++;
+			if (type != null) {
+				types.add(type.toString());
+			}
+			if (isSymbol('.')) {
+				expect('.');
+				expect('.');
+				expect('.');
+			}
+			identifier();
+			while (isSymbol('[')) {
+				next();
+				expect(']');
+			}
+			if (isSymbol(',')) {
+				next();
+			} else {
+				expect(')');
+				return arity;
+			}
+		}
+	}
+
+	private static String signature(final String name, final List<String> types) {
+		final StringBuilder sb = new StringBuilder(name).append('(');
+		for (int i = 0; i < types.size(); i++) {
+			if (i > 0) {
+				sb.append(",");
+			}
+			sb.append(types.get(i));
+		}
+		return sb.append(')').toString();
+	}
+
+	private static void append(final StringBuilder out, final String text) {
+		if (out != null) {
+			out.append(text);
+		}
+	}
+
+	/*
+	 * Collects the annotations and modifiers in front of a declaration, the declaration starts at the first of them.
+	 */
+	private Modifiers modifiers() throws Unsupported {
+		final Modifiers modifiers = new Modifiers(start);
+		while (true) {
+			if (isSymbol('@') && !nextIsWord("interface")) {
+				modifiers.add(annotation());
+			} else if (kind == IDENTIFIER && isModifier()) {
+				next();
+			} else {
+				return modifiers;
+			}
+		}
+	}
+
+	private Annotation annotation() throws Unsupported {
+		final int begin = start;
+		expect('@');
+		final String name = qualifiedName();
+		int annotationEnd = nameEnd;
+		if (isSymbol('(')) {
+			next();
+			int depth = 1;
+			while (depth > 0) {
+				checkNotEof();
+				if (isSymbol('(')) {
+					depth++;
+				} else if (isSymbol(')')) {
+					depth--;
+				}
+				annotationEnd = end;
+				next();
+			}
+		}
+		return new Annotation(begin, annotationEnd, name);
+	}
+
+	private void change(final Modifiers modifiers, final List<AnnotationExpr> configured, final String declaration)
+			throws Unsupported {
+		final List<Annotation> existing = modifiers.annotations;
+		final List<String> names = new ArrayList<String>(existing.size());
+		for (Annotation annotation : existing) {
+			names.add(annotation.name);
+		}
+		final AnnotationMerger.Plan plan = merger.merge(names, new AnnotationMerger.Existing() {
+			@Override
+			AnnotationExpr tree(final int position) {
+				return parse(existing.get(position));
+			}
+
+			@Override
+			boolean isSame(final int position, final AnnotationExpr configured) {
+				final Annotation annotation = existing.get(position);
+				// the text is only parsed when it differs from how the configured annotation prints
+				return source.substring(annotation.begin, annotation.end).equals(configured.toString())
+						|| configured.equals(parse(annotation));
+			}
+		}, configured);
+		if (plan == null) {
+			throw UNSUPPORTED;
+		}
+		if (plan.isEmpty()) {
+			return;
+		}
+		final List<SourceSplicer.Range> kept = new ArrayList<SourceSplicer.Range>(existing.size());
+		final List<SourceSplicer.Range> removed = new ArrayList<SourceSplicer.Range>();
+		for (int i = 0; i < existing.size(); i++) {
+			(plan.isRemoved(i) ? removed : kept).add(existing.get(i).range);
+		}
+		splicer.record(modifiers.start, kept, removed, plan.getAdded());
+		changes.add(declaration);
+	}
+
+	/*
+	 * The annotation as the parser reads it, or null when it can't be read and the merge has to be left to the parser.
+	 */
+	private AnnotationExpr parse(final Annotation annotation) {
+		try {
+			return JavaParser.parseAnnotation(source.substring(annotation.begin, annotation.end));
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * Skips a block. Where a type nested in the enclosing type is configured, a local class in the block has to be
+	 * found and that is left to the parser.
+	 */
+	private void skipBlock(final TypeTrie enclosing) throws Unsupported {
+		final boolean watchLocalTypes = enclosing != null && enclosing.hasChildren();
+		expect('{');
+		int depth = 1;
+		boolean afterDot = false;
+		while (depth > 0) {
+			checkNotEof();
+			if (isSymbol('{')) {
+				depth++;
+			} else if (isSymbol('}')) {
+				depth--;
+			} else if (watchLocalTypes && !afterDot && (isWord("class") || isWord("interface") || isWord("enum"))) {
+				throw UNSUPPORTED;
+			}
+			afterDot = isSymbol('.');
+			next();
+		}
+	}
+
+	private void skipParentheses() throws Unsupported {
+		expect('(');
+		int depth = 1;
+		while (depth > 0) {
+			checkNotEof();
+			if (isSymbol('(')) {
+				depth++;
+			} else if (isSymbol(')')) {
+				depth--;
+			}
+			next();
+		}
+	}
+
+	private void skipTypeParameters() throws Unsupported {
+		expect('<');
+		int depth = 1;
+		while (depth > 0) {
+			checkNotEof();
+			if (isSymbol('<')) {
+				depth++;
+			} else if (isSymbol('>')) {
+				depth--;
+			}
+			next();
+		}
+	}
+
+	/*
+	 * Skips a throws clause or array dimensions, returns true at a body and false at the semicolon of an abstract method.
+	 */
+	private boolean skipToBody() throws Unsupported {
+		while (!isSymbol('{') && !isSymbol(';')) {
+			checkNotEof();
+			next();
+		}
+		return isSymbol('{');
+	}
+
+	private void skipFieldRest() throws Unsupported {
+		int depth = 0;
+		while (depth > 0 || !isSymbol(';')) {
+			checkNotEof();
+			if (isSymbol('(') || isSymbol('{') || isSymbol('[')) {
+				depth++;
+			} else if (isSymbol(')') || isSymbol('}') || isSymbol(']')) {
+				depth--;
+			}
+			next();
+		}
+		next();
+	}
+
+	private String qualifiedName() throws Unsupported {
+		final StringBuilder sb = new StringBuilder(identifier());
+		nameEnd = lastEnd;
+		while (isSymbol('.') && !nextIsSymbol('.')) {
+			next();
+			sb.append('.').append(identifier());
+			nameEnd = lastEnd;
+		}
+		return sb.toString();
+	}
+
+	private String identifier() throws Unsupported {
+		if (kind != IDENTIFIER) {
+			throw UNSUPPORTED;
+		}
+		final String identifier = text();
+		lastEnd = end;
+		next();
+		return identifier;
+	}
+
+	private void expect(final char c) throws Unsupported {
+		if (!isSymbol(c)) {
+			throw UNSUPPORTED;
+		}
+		next();
+	}
+
+	private void checkNotEof() throws Unsupported {
+		if (kind == EOF) {
+			throw UNSUPPORTED;
+		}
+	}
+
+	private boolean isSymbol(final char c) {
+		return kind == SYMBOL && symbol == c;
+	}
+
+	private boolean isWord(final String word) {
+		return kind == IDENTIFIER && end - start == word.length() && source.startsWith(word, start);
+	}
+
+	private boolean isModifier() {
+		for (String modifier : MODIFIERS) {
+			if (isWord(modifier)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private String text() {
+		return source.substring(start, end);
+	}
+
+	private boolean nextIsSymbol(final char c) throws Unsupported {
+		final int saved = save();
+		next();
+		final boolean result = isSymbol(c);
+		restore(saved);
+		return result;
+	}
+
+	private boolean nextIsWord(final String word) throws Unsupported {
+		final int saved = save();
+		next();
+		final boolean result = isWord(word);
+		restore(saved);
+		return result;
+	}
+
+	private int save() {
+		return start;
+	}
+
+	private void restore(final int tokenStart) throws Unsupported {
+		pos = tokenStart;
+		next();
+	}
+
+	private void next() throws Unsupported {
+		skipWhitespaceAndComments();
+		start = pos;
+		if (pos >= length) {
+			kind = EOF;
+			end = pos;
+			return;
+		}
+		final char c = source.charAt(pos);
+		if (Character.isJavaIdentifierStart(c)) {
+			pos++;
+			while (pos < length && Character.isJavaIdentifierPart(source.charAt(pos))) {
+				pos++;
+			}
+			kind = IDENTIFIER;
+		} else if (isDigit(c) || (c == '.' && pos + 1 < length && isDigit(source.charAt(pos + 1)))) {
+			pos++;
+			while (pos < length) {
+				final char d = source.charAt(pos);
+				final char previous = source.charAt(pos - 1);
+				if (Character.isJavaIdentifierPart(d) || d == '.'
+						|| ((d == '+' || d == '-') && "eEpP".indexOf(previous) >= 0)) {
+					pos++;
+				} else {
+					break;
+				}
+			}
+			kind = LITERAL;
+		} else if (c == '"' || c == '\'') {
+			pos++;
+			while (true) {
+				if (pos >= length || source.charAt(pos) == '\n' || source.charAt(pos) == '\r') {
+					throw UNSUPPORTED;
+				}
+				final char d = source.charAt(pos++);
+				if (d == '\\') {
+					pos++;
+				} else if (d == c) {
+					break;
+				}
+			}
+			kind = LITERAL;
+		} else if (c == '\\') {
+			throw UNSUPPORTED;
+		} else {
+			pos++;
+			kind = SYMBOL;
+			symbol = c;
+		}
+		end = pos;
+	}
+
+	private void skipWhitespaceAndComments() throws Unsupported {
+		while (pos < length) {
+			final char c = source.charAt(pos);
+			if (Character.isWhitespace(c)) {
+				pos++;
+			} else if (c == '/' && pos + 1 < length && source.charAt(pos + 1) == '/') {
+				while (pos < length && source.charAt(pos) != '\n' && source.charAt(pos) != '\r') {
+					pos++;
+				}
+			} else if (c == '/' && pos + 1 < length && source.charAt(pos + 1) == '*') {
+				final int close = source.indexOf("*/", pos + 2);
+				if (close < 0) {
+					throw UNSUPPORTED;
+				}
+				pos = close + 2;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private static boolean isDigit(final char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static class Modifiers {
+		private final int start;
+		private List<Annotation> annotations = Collections.emptyList();
+
+		Modifiers(final int start) {
+			this.start = start;
+		}
+
+		void add(final Annotation annotation) {
+			if (annotations.isEmpty()) {
+				annotations = new ArrayList<Annotation>(2);
+			}
+			annotations.add(annotation);
+		}
+	}
+
+	private static class Annotation {
+		private final SourceSplicer.Range range;
+		private final int begin;
+		private final int end;
+		private final String name;
+
+		Annotation(final int begin, final int end, final String name) {
+			this.begin = begin;
+			this.end = end;
+			this.range = new SourceSplicer.Range(begin, end);
+			this.name = name;
+		}
+	}
+
+	/*
+	 * Thrown when the file is left to the parser, carries no stack trace since it is expected.
+	 */
+	static class Unsupported extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		Unsupported() {
+			super("Source not supported by the lexer engine", null, false, false);
+		}
+	}
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+/*
+ * What to do with a configured annotation when the declaration already has an annotation of the same type.
+ */
+public enum MergeStrategy {
+	/* The configured annotation replaces the existing one */
+	REPLACE,
+	/* The existing annotation stays as it is */
+	KEEP_EXISTING,
+	/* The attributes of both are merged, a configured attribute replaces an existing one with the same name */
+	MERGE_ATTRIBUTES
+}
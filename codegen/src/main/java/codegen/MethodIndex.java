@@ -0,0 +1,248 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Configured method signatures by method name and then by number of parameters, so a method is usually rejected on
+ * its name or its arity before any parameter type is looked at. Parameter types are compared without whitespace and a
+ * few patterns are understood:
+ * - name(*) matches the method with any parameters,
+ * - a * parameter matches one parameter of any type,
+ * - a type written without type arguments matches it with any type arguments, List matches List<String>.
+ * When more than one signature matches, the one with the most exactly matched parameters wins, name(*) only when no
+ * other does. Of equally good matches the first in signature order is used.
+ */
+final class MethodIndex<V> {
+
+	static final String ANY = "*";
+
+	private static final MethodIndex<Object> EMPTY = new MethodIndex<Object>(Collections.<String, Object> emptyMap());
+
+	private final Map<String, Overloads<V>> byName;
+
+	private MethodIndex(final Map<String, V> bySignature) {
+		if (bySignature.isEmpty()) {
+			byName = Collections.emptyMap();
+			return;
+		}
+		byName = new HashMap<String, Overloads<V>>();
+		for (Map.Entry<String, V> entry : new TreeMap<String, V>(bySignature).entrySet()) {
+			final String signature = entry.getKey();
+			final String name = name(signature);
+			final List<String> types = parameterTypes(signature);
+			if (name == null || types == null) {
+				// not a signature, it never matched a method
+				continue;
+			}
+			Overloads<V> overloads = byName.get(name);
+			if (overloads == null) {
+				overloads = new Overloads<V>();
+				byName.put(name, overloads);
+			}
+			overloads.add(types, entry.getValue());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	static <V> MethodIndex<V> build(final Map<String, V> bySignature) {
+		if (bySignature.isEmpty()) {
+			return (MethodIndex<V>) EMPTY;
+		}
+		return new MethodIndex<V>(bySignature);
+	}
+
+	boolean has(final String name) {
+		return byName.containsKey(name);
+	}
+
+	/*
+	 * Whether any configured signature could match a method with this name and number of parameters.
+	 */
+	boolean has(final String name, final int arity) {
+		final Overloads<V> overloads = byName.get(name);
+		return overloads != null && overloads.has(arity);
+	}
+
+	V find(final String name, final List<String> parameterTypes) {
+		final Overloads<V> overloads = byName.get(name);
+		return overloads != null ? overloads.find(parameterTypes) : null;
+	}
+
+	V find(final String signature) {
+		final String name = name(signature);
+		final List<String> types = parameterTypes(signature);
+		return name != null && types != null ? find(name, types) : null;
+	}
+
+	private static String name(final String signature) {
+		final int open = signature.indexOf('(');
+		if (open < 0 || !signature.trim().endsWith(")")) {
+			return null;
+		}
+		return signature.substring(0, open).trim();
+	}
+
+	/*
+	 * The normalized parameter types of a signature, split on the commas outside of type arguments. Null if it is not a
+	 * signature.
+	 */
+	private static List<String> parameterTypes(final String signature) {
+		if (name(signature) == null) {
+			return null;
+		}
+		final String parameters = normalize(
+				signature.substring(signature.indexOf('(') + 1, signature.lastIndexOf(')')));
+		if (parameters.isEmpty()) {
+			return Collections.emptyList();
+		}
+		final List<String> types = new ArrayList<String>();
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i < parameters.length(); i++) {
+			final char c = parameters.charAt(i);
+			if (c == '<') {
+				depth++;
+			} else if (c == '>') {
+				depth--;
+			} else if (c == ',' && depth == 0) {
+				types.add(parameters.substring(start, i));
+				start = i + 1;
+			}
+		}
+		types.add(parameters.substring(start));
+		return types;
+	}
+
+	static String normalize(final String type) {
+		int i = 0;
+		while (i < type.length() && !Character.isWhitespace(type.charAt(i))) {
+			i++;
+		}
+		if (i == type.length()) {
+			return type;
+		}
+		final StringBuilder sb = new StringBuilder(type.length());
+		for (int j = 0; j < type.length(); j++) {
+			final char c = type.charAt(j);
+			if (!Character.isWhitespace(c)) {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * The type without any type arguments.
+	 */
+	static String erase(final String type) {
+		if (type.indexOf('<') < 0) {
+			return type;
+		}
+		final StringBuilder sb = new StringBuilder(type.length());
+		int depth = 0;
+		for (int i = 0; i < type.length(); i++) {
+			final char c = type.charAt(i);
+			if (c == '<') {
+				depth++;
+			} else if (c == '>') {
+				depth--;
+			} else if (depth == 0) {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private static class Overloads<V> {
+		private final Map<Integer, List<Pattern<V>>> byArity = new HashMap<Integer, List<Pattern<V>>>();
+		private V anyParameters;
+
+		void add(final List<String> types, final V value) {
+			if (types.size() == 1 && ANY.equals(types.get(0))) {
+				if (anyParameters == null) {
+					anyParameters = value;
+				}
+				return;
+			}
+			List<Pattern<V>> patterns = byArity.get(types.size());
+			if (patterns == null) {
+				patterns = new ArrayList<Pattern<V>>(1);
+				byArity.put(types.size(), patterns);
+			}
+			patterns.add(new Pattern<V>(types.toArray(new String[types.size()]), value));
+		}
+
+		boolean has(final int arity) {
+			return anyParameters != null || byArity.containsKey(arity);
+		}
+
+		V find(final List<String> types) {
+			final List<Pattern<V>> patterns = byArity.get(types.size());
+			if (patterns != null) {
+				Pattern<V> best = null;
+				int bestScore = -1;
+				for (Pattern<V> pattern : patterns) {
+					final int score = pattern.score(types);
+					if (score > bestScore) {
+						best = pattern;
+						bestScore = score;
+					}
+				}
+				if (best != null) {
+					return best.value;
+				}
+			}
+			return anyParameters;
+		}
+	}
+
+	private static class Pattern<V> {
+		private final String[] types;
+		private final V value;
+
+		Pattern(final String[] types, final V value) {
+			this.types = types;
+			this.value = value;
+		}
+
+		/*
+		 * -1 if the types don't match, otherwise how many of them matched exactly.
+		 */
+		int score(final List<String> actual) {
+			int score = 0;
+			for (int i = 0; i < types.length; i++) {
+				final String expected = types[i];
+				if (ANY.equals(expected)) {
+					continue;
+				}
+				final String type = normalize(actual.get(i));
+				if (expected.equals(type)) {
+					score++;
+				} else if (expected.indexOf('<') >= 0 || !expected.equals(erase(type))) {
+					return -1;
+				}
+			}
+			return score;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.github.javaparser.ast.CompilationUnit;
+
+/*
+ * What transforming a source produced: either the spliced text, or a changed tree that is only printed while it is
+ * written so the printed file never has to be held in memory as a whole.
+ */
+class Output {
+	private final String text;
+	private final CompilationUnit tree;
+	private final List<String> changes;
+
+	private Output(final String text, final CompilationUnit tree, final List<String> changes) {
+		Utils.assertParamNotNull(changes, "changes");
+		this.text = text;
+		this.tree = tree;
+		this.changes = Collections.unmodifiableList(changes);
+	}
+
+	static Output text(final String text, final List<String> changes) {
+		Utils.assertParamNotNull(text, "text");
+		return new Output(text, null, changes);
+	}
+
+	static Output tree(final CompilationUnit tree, final List<String> changes) {
+		Utils.assertParamNotNull(tree, "tree");
+		return new Output(null, tree, changes);
+	}
+
+	/*
+	 * Null when the output is a tree.
+	 */
+	String getText() {
+		return text;
+	}
+
+	CompilationUnit getTree() {
+		return tree;
+	}
+
+	/*
+	 * The changed declarations as type, type#field or type#method(parameters).
+	 */
+	List<String> getChanges() {
+		return changes;
+	}
+
+	@Override
+	public String toString() {
+		return text != null ? text : tree.toString();
+	}
+}
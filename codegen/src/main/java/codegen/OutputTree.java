@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/*
+ * Mirrors a source tree into an output directory. Changed files are written to their place in the output, unchanged
+ * ones are passed through as they are: hard linked where the file system allows it and copied otherwise, so they are
+ * never decoded or encoded. A pass-through that is already in place costs a stat when it is the same link. A copy
+ * with the same size and modification time is compared byte for byte as well, an edit that keeps the size can fall
+ * within the timestamp granularity of the file system. Pass-throughs replace their target like written files do,
+ * through a temp file that is moved over it or left to the commit of staged writes.
+ *
+ * Outputs whose source was deleted are pruned after a batch, so no stale class is left to be compiled.
+ */
+class OutputTree {
+
+	private final Path sourceRoot;
+	private final Path outputRoot;
+	private final SourceIO io;
+
+	OutputTree(final File sourceRoot, final File outputRoot, final SourceIO io) {
+		Utils.assertParamNotNull(sourceRoot, "sourceRoot");
+		Utils.assertParamNotNull(outputRoot, "outputRoot");
+		Utils.assertParamNotNull(io, "io");
+		this.io = io;
+		this.sourceRoot = sourceRoot.toPath().toAbsolutePath().normalize();
+		this.outputRoot = outputRoot.toPath().toAbsolutePath().normalize();
+		if (this.outputRoot.startsWith(this.sourceRoot) || this.sourceRoot.startsWith(this.outputRoot)) {
+			throw new IllegalArgumentException(
+					"Output directory " + outputRoot + " and source directory " + sourceRoot + " overlap");
+		}
+	}
+
+	File getOutputRoot() {
+		return outputRoot.toFile();
+	}
+
+	File target(final File source) throws IOException {
+		final Path path = source.toPath().toAbsolutePath().normalize();
+		if (!path.startsWith(sourceRoot)) {
+			throw new IOException(source + " is not in the source directory " + sourceRoot);
+		}
+		final Path target = outputRoot.resolve(sourceRoot.relativize(path));
+		Files.createDirectories(target.getParent());
+		return target.toFile();
+	}
+
+	void passThrough(final File source, final StagedWrites writes) throws IOException {
+		final Path from = source.toPath();
+		final File target = target(source);
+		final Path to = target.toPath();
+		if (Files.exists(to) && isSame(from, to)) {
+			return;
+		}
+		final Path temp = CodeGenerator.createTempFile(target);
+		try {
+			Files.delete(temp);
+			try {
+				Files.createLink(temp, from);
+			} catch (IOException e) {
+				copy(from, temp);
+			} catch (UnsupportedOperationException e) {
+				copy(from, temp);
+			}
+			CodeGenerator.replace(target, temp, writes);
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		} catch (RuntimeException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+	}
+
+	/*
+	 * Deletes every output without a source and the directories that leaves empty, returns how many files went.
+	 */
+	int prune() throws IOException {
+		if (!Files.isDirectory(outputRoot)) {
+			return 0;
+		}
+		final Pruner pruner = new Pruner();
+		Files.walkFileTree(outputRoot, pruner);
+		return pruner.pruned;
+	}
+
+	private static void copy(final Path from, final Path to) throws IOException {
+		Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+	}
+
+	private boolean isSame(final Path from, final Path to) throws IOException {
+		if (Files.isSameFile(from, to)) {
+			return true;
+		}
+		final BasicFileAttributes source = Files.readAttributes(from, BasicFileAttributes.class);
+		final BasicFileAttributes target = Files.readAttributes(to, BasicFileAttributes.class);
+		return source.size() == target.size() && source.lastModifiedTime().equals(target.lastModifiedTime())
+				&& io.sameContent(from.toFile(), to.toFile());
+	}
+
+	private class Pruner extends SimpleFileVisitor<Path> {
+		private int pruned;
+
+		@Override
+		public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) throws IOException {
+			if (!Files.exists(source(file))) {
+				Files.delete(file);
+				pruned++;
+			}
+			return FileVisitResult.CONTINUE;
+		}
+
+		@Override
+		public FileVisitResult postVisitDirectory(final Path directory, final IOException e) throws IOException {
+			if (e != null) {
+				throw e;
+			}
+			if (!directory.equals(outputRoot) && !Files.exists(source(directory)) && isEmpty(directory)) {
+				Files.delete(directory);
+			}
+			return FileVisitResult.CONTINUE;
+		}
+
+		private Path source(final Path output) {
+			return sourceRoot.resolve(outputRoot.relativize(output));
+		}
+
+		private boolean isEmpty(final Path directory) throws IOException {
+			final DirectoryStream<Path> entries = Files.newDirectoryStream(directory);
+			try {
+				return !entries.iterator().hasNext();
+			} finally {
+				entries.close();
+			}
+		}
+	}
+}
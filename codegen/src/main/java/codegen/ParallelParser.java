@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Splits the scheduled files into ranges of roughly equal cost and lets the fork/join pool steal the ranges, so a few
+ * big files don't end up queued behind each other on one worker.
+ */
+class ParallelParser {
+
+	private static final int SPLITS_PER_THREAD = 4;
+
+	private final CodeGenerator generator;
+	private final int parallelism;
+
+	ParallelParser(final CodeGenerator generator, final int parallelism) {
+		Utils.assertParamNotNull(generator, "generator");
+		this.generator = generator;
+		this.parallelism = parallelism;
+	}
+
+	void parse(final BatchResults results) {
+		final long grain = Math.max(1, results.totalWeight() / (parallelism * SPLITS_PER_THREAD));
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(new ParseTask(results, 0, results.size(), grain));
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private class ParseTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final BatchResults results;
+		private final int from;
+		private final int to;
+		private final long grain;
+
+		ParseTask(final BatchResults results, final int from, final int to, final long grain) {
+			this.results = results;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= 1 || results.weight(from, to) <= grain) {
+				for (int position = from; position < to; position++) {
+					final int index = results.index(position);
+					results.complete(index, generator.process(results.file(index), results));
+				}
+				return;
+			}
+			final int middle = results.split(from, to);
+			invokeAll(new ParseTask(results, from, middle, grain), new ParseTask(results, middle, to, grain));
+		}
+	}
+}
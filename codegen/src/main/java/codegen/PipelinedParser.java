@@ -0,0 +1,293 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.github.javaparser.ParseException;
+
+/*
+ * Runs read -> transform -> write as three stages connected by bounded queues. The reading and writing stages only
+ * block on the disk and get their own small thread pools, the transforming stage is CPU bound and gets one thread per
+ * unit of parallelism. A full queue stalls the stage in front of it, so memory stays bounded by the queue sizes.
+ *
+ * A stage thread that dies, from an Error or a failing listener, still drains its queue and hands the end on, so no
+ * other stage waits for it forever. The other stages stop working once that happens and the failure is thrown from
+ * parse when the pipeline has ended.
+ */
+class PipelinedParser {
+
+	private static final int IO_THREADS = 4;
+	private static final int QUEUE_CAPACITY_PER_THREAD = 4;
+	private static final Item END = new Item(-1, (String) null, 0, 0);
+
+	private final CodeGenerator generator;
+	private final int cpuThreads;
+
+	PipelinedParser(final CodeGenerator generator, final int parallelism) {
+		Utils.assertParamNotNull(generator, "generator");
+		this.generator = generator;
+		this.cpuThreads = parallelism;
+	}
+
+	void parse(final BatchResults results) throws IOException {
+		final int readers = Math.min(IO_THREADS, results.size());
+		final int writers = Math.min(IO_THREADS, results.size());
+		final BlockingQueue<Item> sources = new ArrayBlockingQueue<Item>(cpuThreads * QUEUE_CAPACITY_PER_THREAD);
+		final BlockingQueue<Item> outputs = new ArrayBlockingQueue<Item>(writers * QUEUE_CAPACITY_PER_THREAD);
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger activeReaders = new AtomicInteger(readers);
+		final AtomicInteger activeTransformers = new AtomicInteger(cpuThreads);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		final ExecutorService executor = Executors.newFixedThreadPool(readers + cpuThreads + writers,
+				new StageThreadFactory());
+		try {
+			for (int i = 0; i < readers; i++) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							read(results, next, sources, failure);
+						} catch (Throwable e) {
+							failure.compareAndSet(null, e);
+						} finally {
+							if (activeReaders.decrementAndGet() == 0) {
+								end(sources, cpuThreads);
+							}
+						}
+					}
+				});
+			}
+			for (int i = 0; i < cpuThreads; i++) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							transform(results, sources, outputs, failure);
+						} catch (Throwable e) {
+							failure.compareAndSet(null, e);
+							drain(sources);
+						} finally {
+							if (activeTransformers.decrementAndGet() == 0) {
+								end(outputs, writers);
+							}
+						}
+					}
+				});
+			}
+			for (int i = 0; i < writers; i++) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							write(results, outputs, failure);
+						} catch (Throwable e) {
+							failure.compareAndSet(null, e);
+							drain(outputs);
+						}
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+		}
+		awaitTermination(executor);
+		rethrow(failure.get());
+	}
+
+	private void read(final BatchResults results, final AtomicInteger next, final BlockingQueue<Item> sources,
+			final AtomicReference<Throwable> failure) {
+		int position;
+		while (failure.get() == null && (position = next.getAndIncrement()) < results.size()) {
+			final int index = results.index(position);
+			final File file = results.file(index);
+			final long start = System.nanoTime();
+			try {
+				final String source = generator.read(file);
+				if (source == null) {
+					final long readNanos = System.nanoTime() - start;
+					generator.passThrough(file, results);
+					results.complete(index, new FileResult(file, FileResult.Status.UNCHANGED, null, readNanos, 0,
+							System.nanoTime() - start - readNanos));
+				} else {
+					put(sources, new Item(index, source, System.nanoTime() - start, 0));
+				}
+			} catch (IOException e) {
+				results.complete(index, FileResult.failed(file, e, System.nanoTime() - start, 0, 0));
+			} catch (RuntimeException e) {
+				results.complete(index, FileResult.failed(file, e, System.nanoTime() - start, 0, 0));
+			}
+		}
+	}
+
+	private void transform(final BatchResults results, final BlockingQueue<Item> sources,
+			final BlockingQueue<Item> outputs, final AtomicReference<Throwable> failure) {
+		Item item;
+		while ((item = take(sources)) != END) {
+			if (failure.get() != null) {
+				continue;
+			}
+			final File file = results.file(item.index);
+			final long start = System.nanoTime();
+			try {
+				final Output result = generator.change(item.source);
+				final long transformNanos = System.nanoTime() - start;
+				if (result != null && results.isDryRun()) {
+					results.complete(item.index, new FileResult(file, FileResult.Status.CHANGED, null, item.readNanos,
+							transformNanos, 0, result.getChanges()));
+				} else if (result != null) {
+					put(outputs, new Item(item.index, result, item.readNanos, transformNanos));
+				} else {
+					generator.passThrough(file, results);
+					results.complete(item.index, new FileResult(file, FileResult.Status.UNCHANGED, null,
+							item.readNanos, transformNanos, System.nanoTime() - start - transformNanos));
+				}
+			} catch (ParseException e) {
+				results.complete(item.index, FileResult.failed(file, e, item.readNanos, System.nanoTime() - start, 0));
+			} catch (IOException e) {
+				results.complete(item.index, FileResult.failed(file, e, item.readNanos, System.nanoTime() - start, 0));
+			} catch (RuntimeException e) {
+				results.complete(item.index, FileResult.failed(file, e, item.readNanos, System.nanoTime() - start, 0));
+			}
+		}
+	}
+
+	private void write(final BatchResults results, final BlockingQueue<Item> outputs,
+			final AtomicReference<Throwable> failure) {
+		Item item;
+		while ((item = take(outputs)) != END) {
+			if (failure.get() != null) {
+				continue;
+			}
+			final File file = results.file(item.index);
+			final long start = System.nanoTime();
+			try {
+				final boolean written = generator.writeFile(item.output, generator.output(file), results.writes());
+				results.complete(item.index, FileResult.written(file, written, item.readNanos, item.transformNanos,
+						System.nanoTime() - start, item.output.getChanges()));
+			} catch (IOException e) {
+				results.complete(item.index, FileResult.failed(file, e, item.readNanos, item.transformNanos,
+						System.nanoTime() - start));
+			} catch (RuntimeException e) {
+				results.complete(item.index, FileResult.failed(file, e, item.readNanos, item.transformNanos,
+						System.nanoTime() - start));
+			}
+		}
+	}
+
+	private static void end(final BlockingQueue<Item> queue, final int consumers) {
+		for (int i = 0; i < consumers; i++) {
+			put(queue, END);
+		}
+	}
+
+	/*
+	 * Takes what is left up to the end, the stage in front must never block on a queue nobody takes from.
+	 */
+	private static void drain(final BlockingQueue<Item> queue) {
+		while (take(queue) != END) {
+			// dropped, the batch fails
+		}
+	}
+
+	private static void rethrow(final Throwable failure) {
+		if (failure instanceof Error) {
+			throw (Error) failure;
+		}
+		if (failure instanceof RuntimeException) {
+			throw (RuntimeException) failure;
+		}
+	}
+
+	private static void put(final BlockingQueue<Item> queue, final Item item) {
+		try {
+			queue.put(item);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while handing over " + item.index, e);
+		}
+	}
+
+	private static Item take(final BlockingQueue<Item> queue) {
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for work", e);
+		}
+	}
+
+	private static void awaitTermination(final ExecutorService executor) throws IOException {
+		try {
+			while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+				// keep waiting, every stage ends when its queue is drained
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the pipeline to finish", e);
+		}
+	}
+
+	/*
+	 * A read source on its way to the transformers or a transformed output on its way to the writers.
+	 */
+	private static class Item {
+		private final int index;
+		private final String source;
+		private final Output output;
+		private final long readNanos;
+		private final long transformNanos;
+
+		Item(final int index, final String source, final long readNanos, final long transformNanos) {
+			this(index, source, null, readNanos, transformNanos);
+		}
+
+		Item(final int index, final Output output, final long readNanos, final long transformNanos) {
+			this(index, null, output, readNanos, transformNanos);
+		}
+
+		private Item(final int index, final String source, final Output output, final long readNanos,
+				final long transformNanos) {
+			this.index = index;
+			this.source = source;
+			this.output = output;
+			this.readNanos = readNanos;
+			this.transformNanos = transformNanos;
+		}
+	}
+
+	private static class StageThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(final Runnable r) {
+			final Thread thread = new Thread(r, "codegen-pipeline-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.github.javaparser.ast.Node;
+
+/*
+ * Reads and writes source files through FileChannels with buffers and coders kept per thread, so a batch doesn't
+ * allocate a stream, a decoder and a byte array for every file. Files up to POOL_THRESHOLD are read into the pooled
+ * array, bigger ones get an array of their own that is not kept. Nothing is memory mapped: a mapping can't be released
+ * before it is garbage collected and a file that is still mapped can't be replaced on Windows. Pure ASCII content in
+ * an encoding that agrees with ASCII skips the coders.
+ *
+ * A buffer returned by read() or encode() is only valid on the calling thread until its next call of the same method.
+ * The pooled buffers of a thread are dropped by release(), so a long lived thread doesn't hold on to them, or to this
+ * class loader, between batches.
+ */
+class SourceIO {
+
+	static final int POOL_THRESHOLD = 1 << 20;
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final ThreadLocal<Buffers> BUFFERS = new ThreadLocal<Buffers>() {
+		@Override
+		protected Buffers initialValue() {
+			return new Buffers();
+		}
+	};
+
+	private final Charset encoding;
+	private final boolean asciiCompatible;
+
+	SourceIO(final Charset encoding) {
+		Utils.assertParamNotNull(encoding, "encoding");
+		this.encoding = encoding;
+		this.asciiCompatible = isAsciiCompatible(encoding);
+	}
+
+	private static boolean isAsciiCompatible(final Charset encoding) {
+		if (encoding.name().equals("UTF-8") || encoding.name().equals("US-ASCII")) {
+			return true;
+		}
+		if (encoding.newEncoder().maxBytesPerChar() != 1) {
+			return false;
+		}
+		final byte[] ascii = new byte[0x80];
+		for (int i = 0; i < ascii.length; i++) {
+			ascii[i] = (byte) i;
+		}
+		final String decoded = new String(ascii, encoding);
+		for (int i = 0; i < ascii.length; i++) {
+			if (decoded.charAt(i) != i) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Drops the buffers and coders of the calling thread, the next call on it starts with small ones again.
+	 */
+	static void release() {
+		BUFFERS.remove();
+	}
+
+	/*
+	 * The content of the file from position 0 to the limit, always array backed.
+	 */
+	ByteBuffer read(final File file) throws IOException {
+		final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			final long size = channel.size();
+			if (size >= Integer.MAX_VALUE) {
+				throw new IOException(file + " is too big to be a source file");
+			}
+			final Buffers buffers = BUFFERS.get();
+			ByteBuffer buffer = buffers.input((int) size + 1);
+			while (channel.read(buffer) >= 0) {
+				if (!buffer.hasRemaining()) {
+					// the file grew while it was read
+					buffer = buffers.grow(buffer);
+				}
+			}
+			buffer.flip();
+			return buffer;
+		} finally {
+			channel.close();
+		}
+	}
+
+	String decode(final ByteBuffer content) throws CharacterCodingException {
+		if (asciiCompatible && content.hasArray()
+				&& isAscii(content.array(), content.arrayOffset() + content.position(), content.remaining())) {
+			// every byte is a char of its own, which is what decoding Latin-1 does without a decoder
+			return new String(content.array(), content.arrayOffset() + content.position(), content.remaining(),
+					ISO_8859_1);
+		}
+		final Buffers buffers = BUFFERS.get();
+		final CharsetDecoder decoder = buffers.decoder(encoding);
+		final CharBuffer out = buffers.chars((int) Math.ceil(content.remaining() * (double) decoder.maxCharsPerByte()));
+		final ByteBuffer in = content.duplicate();
+		check(decoder.decode(in, out, true));
+		check(decoder.flush(out));
+		out.flip();
+		return out.toString();
+	}
+
+	/*
+	 * The encoded content from position 0 to the limit.
+	 */
+	ByteBuffer encode(final String content) throws CharacterCodingException {
+		final Buffers buffers = BUFFERS.get();
+		final int length = content.length();
+		if (asciiCompatible && isAscii(content)) {
+			final ByteBuffer out = buffers.output(length);
+			final byte[] array = out.array();
+			for (int i = 0; i < length; i++) {
+				array[i] = (byte) content.charAt(i);
+			}
+			out.position(length);
+			out.flip();
+			return out;
+		}
+		final CharsetEncoder encoder = buffers.encoder(encoding);
+		final ByteBuffer out = buffers.output((int) Math.ceil(length * (double) encoder.maxBytesPerChar()));
+		check(encoder.encode(CharBuffer.wrap(content), out, true));
+		check(encoder.flush(out));
+		out.flip();
+		return out;
+	}
+
+	/*
+	 * True when the file exists and holds exactly the remaining bytes of content, compared a chunk at a time.
+	 */
+	boolean hasContent(final File file, final ByteBuffer content) throws IOException {
+		if (!file.exists() || file.length() != content.remaining()) {
+			return false;
+		}
+		final ByteBuffer chunk = BUFFERS.get().leftChunk;
+		final ByteBuffer expected = content.duplicate();
+		final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			while (true) {
+				chunk.clear();
+				final int read = fill(channel, chunk);
+				chunk.flip();
+				if (read > expected.remaining()) {
+					return false;
+				}
+				final ByteBuffer part = expected.duplicate();
+				part.limit(part.position() + read);
+				if (!chunk.equals(part)) {
+					return false;
+				}
+				expected.position(expected.position() + read);
+				if (read < chunk.capacity()) {
+					return !expected.hasRemaining();
+				}
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/*
+	 * True when both files exist and have the same bytes, compared a chunk at a time.
+	 */
+	boolean sameContent(final File left, final File right) throws IOException {
+		if (!left.exists() || !right.exists() || left.length() != right.length()) {
+			return false;
+		}
+		final Buffers buffers = BUFFERS.get();
+		final FileChannel leftChannel = FileChannel.open(left.toPath(), StandardOpenOption.READ);
+		try {
+			final FileChannel rightChannel = FileChannel.open(right.toPath(), StandardOpenOption.READ);
+			try {
+				final ByteBuffer leftChunk = buffers.leftChunk;
+				final ByteBuffer rightChunk = buffers.rightChunk;
+				while (true) {
+					leftChunk.clear();
+					rightChunk.clear();
+					final int read = fill(leftChannel, leftChunk);
+					if (fill(rightChannel, rightChunk) != read) {
+						return false;
+					}
+					leftChunk.flip();
+					rightChunk.flip();
+					if (!leftChunk.equals(rightChunk)) {
+						return false;
+					}
+					if (read < leftChunk.capacity()) {
+						return true;
+					}
+				}
+			} finally {
+				rightChannel.close();
+			}
+		} finally {
+			leftChannel.close();
+		}
+	}
+
+	private static int fill(final FileChannel channel, final ByteBuffer chunk) throws IOException {
+		while (chunk.hasRemaining() && channel.read(chunk) >= 0) {
+			// read until the chunk is full or the file ends
+		}
+		return chunk.position();
+	}
+
+	/*
+	 * Prints the tree into the file through the thread's encoder.
+	 */
+	void print(final Node node, final Path path) throws IOException {
+		final Writer writer = Channels.newWriter(
+				FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING),
+				BUFFERS.get().encoder(encoding), -1);
+		try {
+			StreamingPrinter.print(node, writer);
+		} finally {
+			writer.close();
+		}
+	}
+
+	static void write(final Path path, final ByteBuffer content) throws IOException {
+		final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			final ByteBuffer in = content.duplicate();
+			while (in.hasRemaining()) {
+				channel.write(in);
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static void check(final CoderResult result) throws CharacterCodingException {
+		if (result.isError()) {
+			result.throwException();
+		}
+		if (result.isOverflow()) {
+			// the buffers are sized by the coders' own maximum, running out means a broken charset
+			throw new IllegalStateException("Buffer overflow while coding " + result);
+		}
+	}
+
+	private static boolean isAscii(final byte[] bytes, final int offset, final int length) {
+		for (int i = offset; i < offset + length; i++) {
+			if (bytes[i] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isAscii(final String content) {
+		for (int i = 0; i < content.length(); i++) {
+			if (content.charAt(i) >= 0x80) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * The buffers and coders of one thread. Buffers grow to the biggest file seen, but never keep more than
+	 * POOL_THRESHOLD worth of bytes, bigger requests get a buffer of their own.
+	 */
+	private static class Buffers {
+		private ByteBuffer input = ByteBuffer.allocate(8192);
+		private ByteBuffer output = ByteBuffer.allocate(8192);
+		private CharBuffer chars = CharBuffer.allocate(8192);
+		private final ByteBuffer leftChunk = ByteBuffer.allocate(8192);
+		private final ByteBuffer rightChunk = ByteBuffer.allocate(8192);
+		private CharsetDecoder decoder;
+		private CharsetEncoder encoder;
+
+		ByteBuffer input(final int capacity) {
+			if (input.capacity() < capacity) {
+				final ByteBuffer buffer = ByteBuffer.allocate(capacity);
+				if (capacity > POOL_THRESHOLD + 1) {
+					return buffer;
+				}
+				input = buffer;
+			}
+			input.clear();
+			return input;
+		}
+
+		ByteBuffer grow(final ByteBuffer full) {
+			final ByteBuffer bigger = ByteBuffer.allocate(full.capacity() * 2);
+			full.flip();
+			bigger.put(full);
+			if (bigger.capacity() <= POOL_THRESHOLD + 1) {
+				input = bigger;
+			}
+			return bigger;
+		}
+
+		ByteBuffer output(final int capacity) {
+			if (output.capacity() < capacity) {
+				final ByteBuffer buffer = ByteBuffer.allocate(capacity);
+				if (capacity > POOL_THRESHOLD) {
+					return buffer;
+				}
+				output = buffer;
+			}
+			output.clear();
+			return output;
+		}
+
+		CharBuffer chars(final int capacity) {
+			if (chars.capacity() < capacity) {
+				final CharBuffer buffer = CharBuffer.allocate(capacity);
+				if (capacity > POOL_THRESHOLD) {
+					return buffer;
+				}
+				chars = buffer;
+			}
+			chars.clear();
+			return chars;
+		}
+
+		/*
+		 * Replaces what can't be decoded like new String(bytes, charset) does.
+		 */
+		CharsetDecoder decoder(final Charset charset) {
+			if (decoder == null || !decoder.charset().equals(charset)) {
+				decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			}
+			return decoder.reset();
+		}
+
+		CharsetEncoder encoder(final Charset charset) {
+			if (encoder == null || !encoder.charset().equals(charset)) {
+				encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+						.onUnmappableCharacter(CodingErrorAction.REPLACE);
+			}
+			return encoder.reset();
+		}
+	}
+}
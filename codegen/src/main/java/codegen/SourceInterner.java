@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Shares the names and annotation lists a configuration repeats while it is loaded. Big configurations list the same
+ * few annotations for thousands of fields and methods, every member configured alike ends up with the same list and
+ * every name with one copy. Only the loader holds on to it, it is dropped with the maps once loading is done and the
+ * loaded configuration keeps what was shared, not the interner.
+ *
+ * One interner is used by one thread.
+ */
+final class SourceInterner {
+
+	private final Map<String, String> keys = new HashMap<String, String>();
+	private final Map<List<String>, List<String>> sources = new HashMap<List<String>, List<String>>();
+
+	/*
+	 * The shared instance of a class name, field name or method signature.
+	 */
+	String key(final String key) {
+		final String shared = keys.get(key);
+		if (shared != null) {
+			return shared;
+		}
+		keys.put(key, key);
+		return key;
+	}
+
+	/*
+	 * The shared, unmodifiable copy of a list of annotations as configured.
+	 */
+	List<String> sources(final List<String> list) {
+		final List<String> shared = sources.get(list);
+		if (shared != null) {
+			return shared;
+		}
+		final List<String> copy = new ArrayList<String>(list.size());
+		for (String source : list) {
+			copy.add(key(source));
+		}
+		final List<String> unmodifiable = Collections.unmodifiableList(copy);
+		sources.put(unmodifiable, unmodifiable);
+		return unmodifiable;
+	}
+}
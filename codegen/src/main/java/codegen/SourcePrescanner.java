@@ -0,0 +1,219 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/*
+ * Looks at the raw bytes of a source file and answers whether it can declare a configured type, without building an
+ * AST. It only lexes what matters at the top level of the file: comments, string and character literals, brace and
+ * parenthesis depth, the package declaration and the type names following class, interface and enum. Whenever the
+ * answer can't be given with certainty (default package, several top-level types, unicode escapes, an encoding where
+ * ASCII bytes can be part of a multi byte character, unbalanced input) it answers yes and leaves it to the parser.
+ */
+class SourcePrescanner {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final byte[] PACKAGE = ascii("package");
+	private static final byte[] CLASS = ascii("class");
+	private static final byte[] INTERFACE = ascii("interface");
+	private static final byte[] ENUM = ascii("enum");
+
+	private final InternalConfiguration config;
+	private final Charset encoding;
+	private final boolean enabled;
+
+	SourcePrescanner(final InternalConfiguration config) {
+		Utils.assertParamNotNull(config, "config");
+		this.config = config;
+		this.encoding = config.getEncoding();
+		this.enabled = encoding.equals(UTF_8) || encoding.newEncoder().maxBytesPerChar() == 1;
+	}
+
+	boolean mayDeclareConfiguredType(final byte[] content) {
+		return mayDeclareConfiguredType(content, content.length);
+	}
+
+	/*
+	 * Scans the first length bytes of content, the rest of the array is ignored.
+	 */
+	boolean mayDeclareConfiguredType(final byte[] content, final int length) {
+		return mayDeclareConfiguredType(ByteBuffer.wrap(content, 0, length));
+	}
+
+	/*
+	 * Scans the bytes from the position to the limit of content without moving either, heap, direct and mapped
+	 * buffers alike.
+	 */
+	boolean mayDeclareConfiguredType(final ByteBuffer content) {
+		if (!enabled) {
+			return true;
+		}
+		final int n = content.limit();
+		int i = content.position();
+		if (startsWithUtf8Bom(content, i, n)) {
+			i += 3;
+		}
+		int braces = 0;
+		int parens = 0;
+		boolean afterDot = false;
+		boolean expectTypeName = false;
+		StringBuilder packageName = null;
+		TypeTrie pkg = null;
+		String firstType = null;
+
+		while (i < n) {
+			final int c = content.get(i) & 0xff;
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+				i++;
+			} else if (c == '/' && i + 1 < n && content.get(i + 1) == '/') {
+				while (i < n && content.get(i) != '\n') {
+					i++;
+				}
+			} else if (c == '/' && i + 1 < n && content.get(i + 1) == '*') {
+				i = skipBlockComment(content, n, i + 2);
+				if (i < 0) {
+					return true;
+				}
+			} else if (c == '"' || c == '\'') {
+				i = skipLiteral(content, n, i + 1, c);
+				if (i < 0) {
+					return true;
+				}
+				afterDot = false;
+			} else if (c == '\\') {
+				return true;
+			} else if (isIdentifierStart(c)) {
+				final int start = i;
+				while (i < n && isIdentifierPart(content.get(i) & 0xff)) {
+					i++;
+				}
+				if (braces == 0 && parens == 0) {
+					if (packageName != null) {
+						packageName.append(string(content, start, i));
+					} else if (expectTypeName) {
+						final String name = string(content, start, i);
+						if (pkg == null || firstType != null) {
+							return true;
+						}
+						firstType = name;
+						if (pkg.child(name) != null) {
+							return true;
+						}
+						expectTypeName = false;
+					} else if (!afterDot && (matches(content, start, i, CLASS) || matches(content, start, i, INTERFACE)
+							|| matches(content, start, i, ENUM))) {
+						expectTypeName = true;
+					} else if (pkg == null && firstType == null && matches(content, start, i, PACKAGE)) {
+						packageName = new StringBuilder();
+					}
+				}
+				afterDot = false;
+			} else if (c >= '0' && c <= '9') {
+				while (i < n && (isIdentifierPart(content.get(i) & 0xff) || content.get(i) == '.')) {
+					i++;
+				}
+				afterDot = false;
+			} else {
+				if (c == '{') {
+					braces++;
+				} else if (c == '}') {
+					if (--braces < 0) {
+						return true;
+					}
+				} else if (c == '(') {
+					parens++;
+				} else if (c == ')') {
+					if (--parens < 0) {
+						return true;
+					}
+				} else if (c == ';' && packageName != null) {
+					pkg = config.getTypes().find(packageName.toString());
+					if (pkg == null) {
+						return false;
+					}
+					packageName = null;
+				} else if (c == '.' && packageName != null) {
+					packageName.append('.');
+				}
+				afterDot = c == '.';
+				i++;
+			}
+		}
+		return firstType == null || expectTypeName || braces != 0 || parens != 0;
+	}
+
+	private String string(final ByteBuffer content, final int start, final int end) {
+		final byte[] bytes = new byte[end - start];
+		for (int i = start; i < end; i++) {
+			bytes[i - start] = content.get(i);
+		}
+		return new String(bytes, encoding);
+	}
+
+	private static int skipBlockComment(final ByteBuffer content, final int n, int i) {
+		for (; i + 1 < n; i++) {
+			if (content.get(i) == '*' && content.get(i + 1) == '/') {
+				return i + 2;
+			}
+		}
+		return -1;
+	}
+
+	private static int skipLiteral(final ByteBuffer content, final int n, int i, final int quote) {
+		for (; i < n; i++) {
+			final byte b = content.get(i);
+			if (b == '\\') {
+				i++;
+			} else if (b == quote) {
+				return i + 1;
+			} else if (b == '\n') {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean startsWithUtf8Bom(final ByteBuffer content, final int i, final int n) {
+		return n - i >= 3 && (content.get(i) & 0xff) == 0xef && (content.get(i + 1) & 0xff) == 0xbb
+				&& (content.get(i + 2) & 0xff) == 0xbf;
+	}
+
+	private static boolean isIdentifierStart(final int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$' || c >= 0x80;
+	}
+
+	private static boolean isIdentifierPart(final int c) {
+		return isIdentifierStart(c) || (c >= '0' && c <= '9');
+	}
+
+	private static boolean matches(final ByteBuffer content, final int start, final int end, final byte[] keyword) {
+		if (end - start != keyword.length) {
+			return false;
+		}
+		for (int i = 0; i < keyword.length; i++) {
+			if (content.get(start + i) != keyword[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] ascii(final String keyword) {
+		return keyword.getBytes(Charset.forName("US-ASCII"));
+	}
+}
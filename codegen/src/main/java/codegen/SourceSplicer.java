@@ -0,0 +1,317 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.BodyDeclaration;
+import com.github.javaparser.ast.expr.AnnotationExpr;
+
+/*
+ * Collects the annotation changes made to a parsed tree and applies them to the text the tree was parsed from.
+ * Replaced annotations are cut out together with the whitespace after them, new annotations go after the last
+ * annotation that was kept or, if none was, in front of the declaration, one per line with the declaration's
+ * indentation. Everything else is copied as it was.
+ *
+ * Positions come either as offsets or from the parser as line and column, where a tab moves the column to the next
+ * multiple of 8. Anything that doesn't look like what the tree says is at a position makes apply return null, the
+ * caller then prints the tree.
+ */
+class SourceSplicer {
+
+	private static final int TAB_WIDTH = 8;
+
+	private final List<Change> changes = new ArrayList<Change>();
+	private boolean linesAndColumns;
+
+	void record(final BodyDeclaration declaration, final List<AnnotationExpr> kept, final List<AnnotationExpr> removed,
+			final List<AnnotationExpr> added) {
+		changes.add(new Change(new NodePosition(declaration), positions(kept), positions(removed), added));
+		linesAndColumns = true;
+	}
+
+	void record(final int declarationStart, final List<Range> kept, final List<Range> removed,
+			final List<AnnotationExpr> added) {
+		changes.add(new Change(new Range(declarationStart, declarationStart), new ArrayList<Position>(kept),
+				new ArrayList<Position>(removed), added));
+	}
+
+	private static List<Position> positions(final List<AnnotationExpr> nodes) {
+		final List<Position> positions = new ArrayList<Position>(nodes.size());
+		for (AnnotationExpr node : nodes) {
+			positions.add(new NodePosition(node));
+		}
+		return positions;
+	}
+
+	boolean isEmpty() {
+		return changes.isEmpty();
+	}
+
+	String apply(final String source) {
+		if (linesAndColumns && source.indexOf("\\u") >= 0) {
+			// unicode escapes are counted by the parser after translation, columns can't be mapped back
+			return null;
+		}
+		final Text text = new Text(source);
+		final List<Edit> edits = new ArrayList<Edit>();
+		for (Change change : changes) {
+			if (!change.toEdits(text, edits)) {
+				return null;
+			}
+		}
+		Collections.sort(edits);
+		final StringBuilder sb = new StringBuilder(source.length() + 64 * edits.size());
+		int copied = 0;
+		for (Edit edit : edits) {
+			if (edit.start < copied) {
+				return null;
+			}
+			sb.append(source, copied, edit.start).append(edit.replacement);
+			copied = edit.end;
+		}
+		return sb.append(source, copied, source.length()).toString();
+	}
+
+	private interface Position {
+		int begin(Text text);
+
+		int end(Text text);
+	}
+
+	private static class NodePosition implements Position {
+		private final Node node;
+
+		NodePosition(final Node node) {
+			this.node = node;
+		}
+
+		@Override
+		public int begin(final Text text) {
+			return text.begin(node);
+		}
+
+		@Override
+		public int end(final Text text) {
+			return text.end(node);
+		}
+	}
+
+	/*
+	 * Offsets into the text, the end is exclusive.
+	 */
+	static class Range implements Position {
+		private final int begin;
+		private final int end;
+
+		Range(final int begin, final int end) {
+			this.begin = begin;
+			this.end = end;
+		}
+
+		@Override
+		public int begin(final Text text) {
+			return begin <= text.source.length() ? begin : -1;
+		}
+
+		@Override
+		public int end(final Text text) {
+			return end <= text.source.length() ? end : -1;
+		}
+	}
+
+	private static class Change {
+		private final Position declaration;
+		private final List<Position> kept;
+		private final List<Position> removed;
+		private final List<AnnotationExpr> added;
+
+		Change(final Position declaration, final List<Position> kept, final List<Position> removed,
+				final List<AnnotationExpr> added) {
+			this.declaration = declaration;
+			this.kept = kept;
+			this.removed = removed;
+			this.added = new ArrayList<AnnotationExpr>(added);
+		}
+
+		boolean toEdits(final Text text, final List<Edit> edits) {
+			for (Position annotation : removed) {
+				final int start = annotation.begin(text);
+				final int end = annotation.end(text);
+				if (start < 0 || end < 0 || text.source.charAt(start) != '@') {
+					return false;
+				}
+				edits.add(new Edit(start, text.skipLineEnd(end), ""));
+			}
+			if (added.isEmpty()) {
+				return true;
+			}
+			final StringBuilder sb = new StringBuilder();
+			if (!kept.isEmpty()) {
+				final Position anchor = kept.get(kept.size() - 1);
+				final int begin = anchor.begin(text);
+				final int at = anchor.end(text);
+				if (begin < 0 || at < 0 || text.source.charAt(begin) != '@') {
+					return false;
+				}
+				final String separator = text.endsLine(at) ? text.eol + text.lineIndent(begin) : " ";
+				for (AnnotationExpr annotation : added) {
+					sb.append(separator).append(annotation);
+				}
+				edits.add(new Edit(at, at, sb.toString()));
+			} else {
+				final int at = declaration.begin(text);
+				if (at < 0 || at == text.source.length() || Character.isWhitespace(text.source.charAt(at))) {
+					return false;
+				}
+				final String indent = text.indent(at);
+				final String separator = indent != null ? text.eol + indent : " ";
+				for (AnnotationExpr annotation : added) {
+					sb.append(annotation).append(separator);
+				}
+				edits.add(new Edit(at, at, sb.toString()));
+			}
+			return true;
+		}
+	}
+
+	private static class Edit implements Comparable<Edit> {
+		private final int start;
+		private final int end;
+		private final String replacement;
+
+		Edit(final int start, final int end, final String replacement) {
+			this.start = start;
+			this.end = end;
+			this.replacement = replacement;
+		}
+
+		@Override
+		public int compareTo(final Edit o) {
+			if (start != o.start) {
+				return start < o.start ? -1 : 1;
+			}
+			// an insertion goes in front of a removal starting at the same offset
+			return (end - start) - (o.end - o.start);
+		}
+	}
+
+	private static class Text {
+		private final String source;
+		private final List<Integer> lineStarts = new ArrayList<Integer>();
+		private final String eol;
+
+		Text(final String source) {
+			this.source = source;
+			lineStarts.add(0);
+			String eol = null;
+			for (int i = 0; i < source.length(); i++) {
+				final char c = source.charAt(i);
+				if (c == '\r' && i + 1 < source.length() && source.charAt(i + 1) == '\n') {
+					eol = eol != null ? eol : "\r\n";
+					lineStarts.add(++i + 1);
+				} else if (c == '\n' || c == '\r') {
+					eol = eol != null ? eol : String.valueOf(c);
+					lineStarts.add(i + 1);
+				}
+			}
+			this.eol = eol != null ? eol : System.getProperty("line.separator");
+		}
+
+		int begin(final Node node) {
+			return offset(node.getBeginLine(), node.getBeginColumn());
+		}
+
+		/*
+		 * The offset just after the node, the parser's end column points at its last character.
+		 */
+		int end(final Node node) {
+			final int offset = offset(node.getEndLine(), node.getEndColumn());
+			return offset < 0 ? -1 : offset + 1;
+		}
+
+		private int offset(final int line, final int column) {
+			if (line < 1 || line > lineStarts.size() || column < 1) {
+				return -1;
+			}
+			int i = lineStarts.get(line - 1);
+			int current = 1;
+			while (current < column) {
+				if (i >= source.length() || source.charAt(i) == '\n' || source.charAt(i) == '\r') {
+					return -1;
+				}
+				current = source.charAt(i) == '\t' ? ((current - 1) / TAB_WIDTH + 1) * TAB_WIDTH + 1 : current + 1;
+				i++;
+			}
+			return current == column && i < source.length() ? i : -1;
+		}
+
+		/*
+		 * Skips blanks, at most one line break and the indentation of the line after it, so that removing a whole line
+		 * leaves the lines around it as they were.
+		 */
+		int skipLineEnd(int i) {
+			i = skipBlanks(i);
+			if (i < source.length() && source.charAt(i) == '\r') {
+				i++;
+			}
+			if (i < source.length() && source.charAt(i) == '\n') {
+				i++;
+			}
+			return skipBlanks(i);
+		}
+
+		private int skipBlanks(int i) {
+			while (i < source.length() && (source.charAt(i) == ' ' || source.charAt(i) == '\t')) {
+				i++;
+			}
+			return i;
+		}
+
+		boolean endsLine(int i) {
+			i = skipBlanks(i);
+			return i == source.length() || source.charAt(i) == '\n' || source.charAt(i) == '\r';
+		}
+
+		String lineIndent(final int offset) {
+			final int start = lineStart(offset);
+			return source.substring(start, skipBlanks(start));
+		}
+
+		private int lineStart(int offset) {
+			while (offset > 0 && source.charAt(offset - 1) != '\n' && source.charAt(offset - 1) != '\r') {
+				offset--;
+			}
+			return offset;
+		}
+
+		/*
+		 * The whitespace in front of the offset on its line, null if something else is in front of it.
+		 */
+		String indent(final int offset) {
+			final int start = lineStart(offset);
+			for (int i = start; i < offset; i++) {
+				if (source.charAt(i) != ' ' && source.charAt(i) != '\t') {
+					return null;
+				}
+			}
+			return source.substring(start, offset);
+		}
+	}
+}
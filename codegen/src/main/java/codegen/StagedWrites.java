@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*
+ * The writes of a batch in batch-commit mode. Every output is written to a temp file next to its target while the
+ * batch runs and the temp files are only moved over the targets once every file of the batch went through, so a
+ * failing batch leaves the tree as it was. Workers add concurrently, commit and rollback run after the batch.
+ */
+class StagedWrites {
+
+	private final Queue<Path[]> staged = new ConcurrentLinkedQueue<Path[]>();
+
+	void add(final Path temp, final Path target) {
+		staged.add(new Path[] { temp, target });
+	}
+
+	int size() {
+		return staged.size();
+	}
+
+	void commit() throws IOException {
+		Path[] write;
+		try {
+			while ((write = staged.poll()) != null) {
+				CodeGenerator.moveAtomically(write[0], write[1]);
+			}
+		} finally {
+			rollback();
+		}
+	}
+
+	void rollback() throws IOException {
+		IOException failure = null;
+		Path[] write;
+		while ((write = staged.poll()) != null) {
+			try {
+				Files.deleteIfExists(write[0]);
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.visitor.DumpVisitor;
+import com.github.javaparser.ast.visitor.DumpVisitor.SourcePrinter;
+
+/*
+ * Prints like Node.toString() but hands every line to a Writer as soon as it is complete instead of collecting the
+ * whole file, so printing a big tree takes no more memory than its longest line and the writer's buffer.
+ *
+ * DumpVisitor only prints through a SourcePrinter, so this is one, but the printing itself is left to a SourcePrinter
+ * per line: it indents and ends the line exactly like Node.toString() does and this class only moves finished lines on
+ * and starts the next one at the same level.
+ */
+class StreamingPrinter extends SourcePrinter {
+
+	private static final String INDENTATION = "    ";
+
+	private final Writer out;
+	private SourcePrinter line = new SourcePrinter(INDENTATION);
+	private int level;
+
+	private StreamingPrinter(final Writer out) {
+		super(INDENTATION);
+		this.out = out;
+	}
+
+	static void print(final Node node, final Writer out) throws IOException {
+		Utils.assertParamNotNull(node, "node");
+		Utils.assertParamNotNull(out, "out");
+		final StreamingPrinter printer = new StreamingPrinter(out);
+		try {
+			node.accept(new DumpVisitor() {
+				@Override
+				protected SourcePrinter createSourcePrinter() {
+					return printer;
+				}
+			}, null);
+			// what follows the last line break
+			final String rest = printer.line.getSource();
+			if (!rest.isEmpty()) {
+				printer.write(rest);
+			}
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	@Override
+	public void indent() {
+		level++;
+		line.indent();
+	}
+
+	@Override
+	public void unindent() {
+		level--;
+		line.unindent();
+	}
+
+	@Override
+	public void print(final String arg) {
+		line.print(arg);
+	}
+
+	@Override
+	public void printLn() {
+		line.printLn();
+		write(line.getSource());
+		line = new SourcePrinter(INDENTATION);
+		for (int i = 0; i < level; i++) {
+			line.indent();
+		}
+	}
+
+	/*
+	 * What has been printed but not yet handed to the writer, the rest of the source is in the writer.
+	 */
+	@Override
+	public String getSource() {
+		return line.getSource();
+	}
+
+	private void write(final String text) {
+		try {
+			out.write(text);
+		} catch (IOException e) {
+			// the visitor can't throw it, print() unwraps it again
+			throw new UncheckedIOException(e);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/*
+ * The source files a configuration points at, found from the configured names alone. A name maps to a file through
+ * the package-to-directory layout, a nested type lives in the file of its outermost type, so the longest name that
+ * exists as a file wins: a.b.Outer.Inner is looked for as a/b/Outer/Inner.java, then a/b/Outer.java and so on.
+ */
+public class TargetFiles {
+
+	private final List<File> files;
+	private final List<String> missing;
+
+	private TargetFiles(final List<File> files, final List<String> missing) {
+		this.files = Collections.unmodifiableList(files);
+		this.missing = Collections.unmodifiableList(missing);
+	}
+
+	static TargetFiles resolve(final Collection<String> names, final File sourceRoot) {
+		Utils.assertParamNotNull(names, "names");
+		Utils.assertParamNotNull(sourceRoot, "sourceRoot");
+		final Set<File> files = new LinkedHashSet<File>();
+		final List<String> missing = new ArrayList<String>();
+		for (String name : new TreeSet<String>(names)) {
+			final File file = resolve(name, sourceRoot);
+			if (file != null) {
+				files.add(file);
+			} else {
+				missing.add(name);
+			}
+		}
+		return new TargetFiles(new ArrayList<File>(files), missing);
+	}
+
+	private static File resolve(final String name, final File sourceRoot) {
+		final String path = name.replace('.', File.separatorChar);
+		for (int end = path.length(); end > 0; end = path.lastIndexOf(File.separatorChar, end - 1)) {
+			final File candidate = new File(sourceRoot, path.substring(0, end) + ".java");
+			if (candidate.isFile()) {
+				return candidate;
+			}
+		}
+		return null;
+	}
+
+	public List<File> getFiles() {
+		return files;
+	}
+
+	public List<String> getMissing() {
+		return missing;
+	}
+}
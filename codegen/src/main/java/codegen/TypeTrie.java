@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import codegen.InternalConfiguration.ClazzContainer;
+
+/*
+ * The configured class names as a tree of name segments, package segments first and nested types last. A node only
+ * exists when a configured class is at or below it, so a missing child means nothing in that package or type needs
+ * work and one map lookup is enough to skip it.
+ */
+class TypeTrie {
+
+	private final Map<String, TypeTrie> children = new HashMap<String, TypeTrie>();
+	private final Map<String, ClazzContainer> classes;
+	private String name;
+
+	private TypeTrie(final Map<String, ClazzContainer> classes) {
+		this.classes = classes;
+	}
+
+	/*
+	 * Only the names are read, a class is looked up in classes when its node is asked for it so a map that builds its
+	 * values on demand only builds the ones the sources reach.
+	 */
+	static TypeTrie build(final Map<String, ClazzContainer> classes) {
+		final TypeTrie root = new TypeTrie(classes);
+		for (String name : classes.keySet()) {
+			TypeTrie node = root;
+			for (String segment : name.split("\\.")) {
+				TypeTrie child = node.children.get(segment);
+				if (child == null) {
+					child = new TypeTrie(classes);
+					node.children.put(segment, child);
+				}
+				node = child;
+			}
+			node.name = name;
+		}
+		return root;
+	}
+
+	TypeTrie child(final String segment) {
+		return children.get(segment);
+	}
+
+	TypeTrie find(final String name) {
+		TypeTrie node = this;
+		int start = 0;
+		while (node != null && start <= name.length()) {
+			int end = name.indexOf('.', start);
+			if (end < 0) {
+				end = name.length();
+			}
+			node = node.children.get(name.substring(start, end));
+			start = end + 1;
+		}
+		return node;
+	}
+
+	boolean hasChildren() {
+		return !children.isEmpty();
+	}
+
+	/*
+	 * The configuration of exactly this name, null if it is only on the way to a configured name.
+	 */
+	ClazzContainer getClazz() {
+		return name != null ? classes.get(name) : null;
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ast.expr.AnnotationExpr;
+
+public class AnnotationMergerTest {
+
+	@Test
+	public void testResolvesImportedNames() throws Exception {
+		final AnnotationMerger merger = new AnnotationMerger(MergeStrategy.REPLACE);
+		merger.addImport("javax.validation.constraints.NotNull");
+
+		assertEquals("javax.validation.constraints.NotNull", merger.resolve("NotNull"));
+		assertEquals("Other", merger.resolve("Other"));
+		assertTrue(merge(merger, list("@NotNull"), list("@javax.validation.constraints.NotNull")).isEmpty());
+	}
+
+	@Test
+	public void testDifferentTypesWithTheSameSimpleName() throws Exception {
+		final AnnotationMerger merger = new AnnotationMerger(MergeStrategy.REPLACE);
+		merger.addImport("javax.validation.constraints.NotNull");
+
+		final AnnotationMerger.Plan plan = merge(merger, list("@NotNull"), list("@lombok.NonNull", "@lombok.NotNull"));
+		assertFalse(plan.isRemoved(0));
+		assertEquals(list("@lombok.NonNull", "@lombok.NotNull"), plan.getAdded());
+	}
+
+	@Test
+	public void testReplace() throws Exception {
+		final AnnotationMerger merger = new AnnotationMerger(MergeStrategy.REPLACE);
+
+		final AnnotationMerger.Plan plan = merge(merger, list("@Size(min = 1)", "@Column"), list("@Size(max = 10)"));
+		assertTrue(plan.isRemoved(0));
+		assertFalse(plan.isRemoved(1));
+		assertEquals(list("@Size(max = 10)"), plan.getAdded());
+	}
+
+	@Test
+	public void testKeepExisting() throws Exception {
+		final AnnotationMerger merger = new AnnotationMerger(MergeStrategy.KEEP_EXISTING);
+
+		assertTrue(merge(merger, list("@Size(min = 1)"), list("@Size(max = 10)")).isEmpty());
+		final AnnotationMerger.Plan plan = merge(merger, list("@Size(min = 1)"),
+				list("@Column", "@Column(name = \"x\")"));
+		assertFalse(plan.isRemoved(0));
+		assertEquals(list("@Column"), plan.getAdded());
+	}
+
+	@Test
+	public void testMergeAttributes() throws Exception {
+		final AnnotationMerger merger = new AnnotationMerger(MergeStrategy.MERGE_ATTRIBUTES);
+
+		final AnnotationMerger.Plan plan = merge(merger, list("@Size(min = 1, max = 5)"),
+				list("@Size(max = 10, message = \"size\")"));
+		assertTrue(plan.isRemoved(0));
+		assertEquals(list("@Size(min = 1, max = 10, message = \"size\")"), plan.getAdded());
+		assertTrue(merge(merger, list("@Size(min = 1, max = 10)"), list("@Size(max = 10)")).isEmpty());
+	}
+
+	@Test
+	public void testOnDemandImportOfTheConfiguredPackage() throws Exception {
+		final AnnotationMerger merger = new AnnotationMerger(MergeStrategy.MERGE_ATTRIBUTES);
+		merger.addOnDemandImport("javax.validation.constraints");
+
+		final AnnotationMerger.Plan plan = merge(merger, list("@Size(min = 1)"),
+				list("@javax.validation.constraints.Size(max = 10)"));
+		assertTrue(plan.isRemoved(0));
+		assertEquals(list("@Size(min = 1, max = 10)"), plan.getAdded());
+	}
+
+	@Test
+	public void testOnDemandImportOfAnotherPackage() throws Exception {
+		final AnnotationMerger merger = new AnnotationMerger(MergeStrategy.MERGE_ATTRIBUTES);
+		merger.addOnDemandImport("lombok");
+		merger.setPackage("codegen");
+
+		AnnotationMerger.Plan plan = merge(merger, list("@NonNull"), list("@javax.annotation.NonNull"));
+		assertFalse(plan.isRemoved(0));
+		assertEquals(list("@javax.annotation.NonNull"), plan.getAdded());
+
+		final AnnotationMerger keep = new AnnotationMerger(MergeStrategy.KEEP_EXISTING);
+		keep.addOnDemandImport("lombok");
+		plan = merge(keep, list("@NonNull"), list("@javax.annotation.NonNull"));
+		assertFalse(plan.isRemoved(0));
+		assertEquals(list("@javax.annotation.NonNull"), plan.getAdded());
+	}
+
+	@Test
+	public void testSimpleNameFromTheSamePackageUnderAnOnDemandImport() throws Exception {
+		final AnnotationMerger merger = new AnnotationMerger(MergeStrategy.KEEP_EXISTING);
+		merger.addOnDemandImport("lombok");
+		merger.setPackage("codegen");
+
+		assertTrue(merge(merger, list("@Audited"), list("@codegen.Audited(true)")).isEmpty());
+	}
+
+	@Test
+	public void testMergeSingleMember() throws Exception {
+		assertEquals(annotation("@Named(\"b\")"),
+				AnnotationMerger.mergeAttributes(annotation("@Named(\"a\")"), annotation("@Named(value = \"b\")")));
+		assertEquals(annotation("@Named(value = \"a\", name = \"b\")"),
+				AnnotationMerger.mergeAttributes(annotation("@Named(\"a\")"), annotation("@Named(name = \"b\")")));
+		assertEquals(annotation("@Named"),
+				AnnotationMerger.mergeAttributes(annotation("@Named"), annotation("@x.Named")));
+	}
+
+	@Test
+	public void testUnreadableExistingAnnotation() throws Exception {
+		final AnnotationMerger merger = new AnnotationMerger(MergeStrategy.MERGE_ATTRIBUTES);
+		final List<AnnotationExpr> existing = new ArrayList<AnnotationExpr>();
+		existing.add(null);
+
+		assertNull(merger.merge(Arrays.asList("Size"), existing(existing), list("@Size(max = 10)")));
+	}
+
+	private static AnnotationMerger.Plan merge(final AnnotationMerger merger, final List<AnnotationExpr> existing,
+			final List<AnnotationExpr> configured) {
+		final List<String> names = new ArrayList<String>(existing.size());
+		for (AnnotationExpr annotation : existing) {
+			names.add(AnnotationMerger.name(annotation));
+		}
+		return merger.merge(names, existing(existing), configured);
+	}
+
+	private static AnnotationMerger.Existing existing(final List<AnnotationExpr> annotations) {
+		return new AnnotationMerger.Existing() {
+			@Override
+			AnnotationExpr tree(final int position) {
+				return annotations.get(position);
+			}
+		};
+	}
+
+	private static List<AnnotationExpr> list(final String... sources) throws Exception {
+		final List<AnnotationExpr> list = new ArrayList<AnnotationExpr>(sources.length);
+		for (String source : sources) {
+			list.add(annotation(source));
+		}
+		return list;
+	}
+
+	private static AnnotationExpr annotation(final String source) throws Exception {
+		return JavaParser.parseAnnotation(source);
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseException;
+
+import codegen.InternalConfiguration.ClazzContainer;
+
+public class AnnotationPoolTest {
+
+	@Rule
+	public ExpectedException expected = ExpectedException.none();
+
+	private final AnnotationPool pool = new AnnotationPool();
+
+	@Test
+	public void testEachAnnotationIsParsedOnce() throws ParseException {
+		assertSame(pool.parse("@NotNull"), pool.parse(new String("@NotNull")));
+		assertSame(pool.parse("@Size(max = 10)"), pool.parse("@Size(max=10)"));
+		assertNotSame(pool.parse("@Size(max = 10)"), pool.parse("@Size(max = 11)"));
+		assertEquals(JavaParser.parseAnnotation("@Size(max = 10)"), pool.parse("@Size( max=10 )"));
+	}
+
+	@Test
+	public void testEqualListsAreCompiledOnce() throws ParseException {
+		final List<String> first = Arrays.asList("@NotNull", "@XmlTransient");
+		final List<String> second = new ArrayList<String>(Arrays.asList("@NotNull", "@XmlTransient"));
+		assertSame(pool.compile(first), pool.compile(second));
+		assertSame(pool.parse("@NotNull"), pool.compile(first).get(0));
+	}
+
+	@Test
+	public void testMembersConfiguredAlikeShareTheirAnnotations() {
+		final Map<String, List<String>> fields = new HashMap<String, List<String>>();
+		fields.put("first", Arrays.asList("@NotNull"));
+		fields.put("second", Arrays.asList("@NotNull"));
+		final Map<String, List<String>> methods = new HashMap<String, List<String>>();
+		methods.put("getFirst()", Arrays.asList("@NotNull"));
+		final SourceInterner interner = new SourceInterner();
+		final ClazzContainer clazz = ClazzContainer.of(new ArrayList<String>(), fields, methods, interner, pool);
+		final ClazzContainer other = ClazzContainer.of(new ArrayList<String>(), fields, methods, interner, pool);
+
+		assertSame(clazz.getFieldAnnotations("first"), clazz.getFieldAnnotations("second"));
+		assertSame(clazz.getFieldAnnotations("first"), clazz.getMethodAnnotations("getFirst()"));
+		assertSame(clazz.getFieldAnnotations("first"), other.getFieldAnnotations("second"));
+	}
+
+	@Test
+	public void testInvalidAnnotationNamesItself() throws ParseException {
+		expected.expect(ParseException.class);
+		expected.expectMessage("@Broken(");
+		pool.parse("@Broken(");
+	}
+}
@@ -23,6 +23,7 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -102,7 +103,6 @@ public class ClassAnnotationVisitorTest {
 	}
 
 	@Test
-	@Ignore // Ignoring because we overwrite the annotation for now
 	public void testCheckAlreadyExistingAnnotationsClassShouldNotChangeExistingAnnotation() throws ParseException {
 		Map<String, InternalConfiguration.ClazzContainer> map = new HashMap<String, InternalConfiguration.ClazzContainer>();
 		List<AnnotationExpr> classAnnotations = new ArrayList<AnnotationExpr>();
@@ -121,7 +121,6 @@ public class ClassAnnotationVisitorTest {
 	}
 
 	@Test
-	@Ignore // Ignoring because we overwrite the annotation for now
 	public void testCheckAlreadyExistingAnnotationsFieldShouldNotChangeExistingAnnotation() throws ParseException {
 		Map<String, InternalConfiguration.ClazzContainer> map = new HashMap<String, InternalConfiguration.ClazzContainer>();
 		List<AnnotationExpr> fieldAnnotations = new ArrayList<AnnotationExpr>();
@@ -146,7 +145,6 @@ public class ClassAnnotationVisitorTest {
 	}
 
 	@Test
-	@Ignore // Ignoring because we overwrite the annotation for now
 	public void testCheckAlreadyExistingAnnotationsMethodShouldNotChangeCurrentAnnotation() throws ParseException {
 		Map<String, InternalConfiguration.ClazzContainer> map = new HashMap<String, InternalConfiguration.ClazzContainer>();
 		List<AnnotationExpr> methodAnnotations = new ArrayList<AnnotationExpr>();
@@ -234,6 +232,74 @@ public class ClassAnnotationVisitorTest {
 		assertEquals(bodyDeclaration.getAnnotations().get(0), markerAnnotationExprWithBody);
 	}
 
+	@Test
+	public void testConfiguredAnnotationIsNotAttachedToTheTree() throws ParseException {
+		Map<String, InternalConfiguration.ClazzContainer> map = new HashMap<String, InternalConfiguration.ClazzContainer>();
+		List<AnnotationExpr> classAnnotations = new ArrayList<AnnotationExpr>();
+		AnnotationExpr configured = JavaParser.parseAnnotation("@ClassAnnotation");
+		classAnnotations.add(configured);
+		map.put("test.TestClass", new InternalConfiguration.ClazzContainer(classAnnotations,
+				new HashMap<String, List<AnnotationExpr>>(), new HashMap<String, List<AnnotationExpr>>()));
+		InternalConfiguration config = new InternalConfiguration(map);
+
+		CompilationUnit first = getParsedCompilationUnit();
+		CompilationUnit second = getParsedCompilationUnit();
+		new ClassAnnotationVisitor(config).visit(first, null);
+		new ClassAnnotationVisitor(config).visit(second, null);
+
+		AnnotationExpr firstAnnotation = first.getTypes().get(0).getAnnotations().get(0);
+		AnnotationExpr secondAnnotation = second.getTypes().get(0).getAnnotations().get(0);
+		assertEquals(configured, firstAnnotation);
+		assertTrue(firstAnnotation != configured);
+		assertTrue(firstAnnotation != secondAnnotation);
+		assertTrue(configured.getParentNode() == null);
+	}
+
+	@Test
+	public void testLocalClassIsAnnotatedButCodeIsNotVisited() throws ParseException {
+		Map<String, InternalConfiguration.ClazzContainer> map = new HashMap<String, InternalConfiguration.ClazzContainer>();
+		Map<String, List<AnnotationExpr>> methodAnnotations = new HashMap<String, List<AnnotationExpr>>();
+		List<AnnotationExpr> annotations = new ArrayList<AnnotationExpr>();
+		annotations.add(JavaParser.parseAnnotation("@MethodAnnotation"));
+		methodAnnotations.put("run()", annotations);
+		map.put("test.TestClass", new InternalConfiguration.ClazzContainer(new ArrayList<AnnotationExpr>(),
+				new HashMap<String, List<AnnotationExpr>>(), methodAnnotations));
+		map.put("test.TestClass.Local", new InternalConfiguration.ClazzContainer(new ArrayList<AnnotationExpr>(),
+				new HashMap<String, List<AnnotationExpr>>(), methodAnnotations));
+		/* @formatter:off */
+		String file = "package test;" + "public class TestClass {"
+				+ " 	public void method(){"
+				+ "		Runnable anonymous = new Runnable() { public void run(){} };"
+				+ "		if (true) { class Local { public void run(){} } }"
+				+ "	}" + "}";
+		/* @formatter:on */
+		CompilationUnit cu = JavaParser.parse(new ByteArrayInputStream(file.getBytes(Charset.forName("UTF-8"))));
+
+		ClassAnnotationVisitor visitor = new ClassAnnotationVisitor(new InternalConfiguration(map));
+		visitor.visit(cu, null);
+
+		assertTrue(visitor.hasChanged());
+		String source = cu.toString();
+		assertEquals(source, 1, source.split("@MethodAnnotation", -1).length - 1);
+		assertTrue(source, source.indexOf("@MethodAnnotation") > source.indexOf("class Local"));
+	}
+
+	@Test
+	public void testTypeInTheDefaultPackage() throws Exception {
+		Map<String, InternalConfiguration.ClazzContainer> map = new HashMap<String, InternalConfiguration.ClazzContainer>();
+		List<AnnotationExpr> classAnnotations = new ArrayList<AnnotationExpr>();
+		classAnnotations.add(JavaParser.parseAnnotation("@ClassAnnotation"));
+		map.put("TestClass", new InternalConfiguration.ClazzContainer(classAnnotations,
+				new HashMap<String, List<AnnotationExpr>>(), new HashMap<String, List<AnnotationExpr>>()));
+		String file = "public class TestClass {\n\tpublic String field;\n}\n";
+		CompilationUnit cu = JavaParser.parse(new ByteArrayInputStream(file.getBytes(Charset.forName("UTF-8"))));
+
+		ClassAnnotationVisitor visitor = new ClassAnnotationVisitor(new InternalConfiguration(map));
+		visitor.visit(cu, null);
+
+		assertEquals(Arrays.asList("TestClass"), visitor.getChanges());
+	}
+
 	private CompilationUnit getParsedCompilationUnit() throws ParseException {
 		/* @formatter:off */
 		String file = "package test;" + "public class TestClass {" + "	public String field;"
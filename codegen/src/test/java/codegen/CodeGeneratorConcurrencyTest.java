@@ -0,0 +1,130 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CodeGeneratorConcurrencyTest {
+
+	private static final int THREADS = 8;
+	private static final int FILES_PER_THREAD = 10;
+
+	private final File root = new File("target/test/concurrency").getAbsoluteFile();
+	private final File source = new File("src/test/resources/codegen/TestObject.java").getAbsoluteFile();
+	private final File nestedSource = new File("src/test/resources/codegen/NestedTestClass.java").getAbsoluteFile();
+
+	@Before
+	public void setup() throws IOException {
+		FileUtils.deleteDirectory(root);
+	}
+
+	@Test
+	public void testSharedGeneratorGivesSameResultAsSequentialRun() throws Exception {
+		final File reference = copy(source, new File(root, "reference/TestObject.java"));
+		new CodeGenerator(new File("src/test/resources/codegen/cfg_severalannotationsbug.json")).parse(reference);
+		final String expected = FileUtils.readFileToString(reference, "UTF-8");
+
+		final CodeGenerator shared = new CodeGenerator(
+				new File("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		final List<List<File>> work = new ArrayList<List<File>>();
+		for (int t = 0; t < THREADS; t++) {
+			final List<File> files = new ArrayList<File>();
+			for (int i = 0; i < FILES_PER_THREAD; i++) {
+				files.add(copy(source, new File(root, t + "/" + i + "/TestObject.java")));
+			}
+			work.add(files);
+		}
+
+		for (List<File> files : runConcurrently(shared, work)) {
+			assertEquals(FILES_PER_THREAD, files.size());
+			for (File file : files) {
+				assertEquals(file.toString(), expected, FileUtils.readFileToString(file, "UTF-8"));
+			}
+		}
+	}
+
+	@Test
+	public void testSharedGeneratorWithParallelism() throws Exception {
+		final File reference = copy(nestedSource, new File(root, "reference/NestedTestClass.java"));
+		new CodeGenerator(new File("src/test/resources/codegen/cfgnested.json")).parse(reference);
+		final String expected = FileUtils.readFileToString(reference, "UTF-8");
+
+		final CodeGenerator shared = new CodeGenerator(new File("src/test/resources/codegen/cfgnested.json"));
+		shared.setParallelism(3);
+		final List<List<File>> work = new ArrayList<List<File>>();
+		for (int t = 0; t < THREADS; t++) {
+			final List<File> files = new ArrayList<File>();
+			for (int i = 0; i < FILES_PER_THREAD; i++) {
+				files.add(copy(nestedSource, new File(root, t + "/" + i + "/NestedTestClass.java")));
+			}
+			work.add(files);
+		}
+
+		for (List<File> files : runConcurrently(shared, work)) {
+			assertEquals(FILES_PER_THREAD, files.size());
+			for (File file : files) {
+				assertEquals(file.toString(), expected, FileUtils.readFileToString(file, "UTF-8"));
+			}
+		}
+	}
+
+	private List<List<File>> runConcurrently(final CodeGenerator generator, final List<List<File>> work)
+			throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(work.size());
+		final CountDownLatch start = new CountDownLatch(1);
+		try {
+			final List<Future<List<File>>> futures = new ArrayList<Future<List<File>>>();
+			for (final List<File> files : work) {
+				futures.add(executor.submit(new Callable<List<File>>() {
+					@Override
+					public List<File> call() throws Exception {
+						start.await();
+						return generator.parse(files);
+					}
+				}));
+			}
+			start.countDown();
+			final List<List<File>> results = new ArrayList<List<File>>();
+			for (Future<List<File>> future : futures) {
+				results.add(future.get());
+			}
+			return results;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	private File copy(final File from, final File to) throws IOException {
+		assertTrue(to.getParentFile().mkdirs() || to.getParentFile().isDirectory());
+		FileUtils.copyFile(from, to);
+		return to;
+	}
+}
@@ -16,13 +16,20 @@
 package codegen;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.FileUtils;
 import org.junit.Before;
@@ -205,6 +212,78 @@ public class CodeGeneratorTest {
 		assertEquals(JavaParser.parse(actualResult), JavaParser.parse(targetFile));
 	}
 	
+	@Test
+	public void testSpliceKeepsTheOriginalText() throws ParseException, IOException {
+		File targetFile = getFile(files.get(2).right);
+		String original = FileUtils.readFileToString(targetFile, "UTF-8");
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setWriteMode(WriteMode.SPLICE);
+		assertTrue(cg.parse(targetFile));
+
+		String spliced = FileUtils.readFileToString(targetFile, "UTF-8");
+		assertEquals(JavaParser.parse(getFile("src/test/resources/codegen/TestObjectResult.java")),
+				JavaParser.parse(targetFile));
+		assertEquals(original, spliced.replace("@codegen.ValidTestObject\r\n", "")
+				.replace("@codegen.IdFields({ \"startDate\", \"endDate\" })\r\n", "")
+				.replace("    @javax.validation.constraints.NotNull\r\n", ""));
+	}
+
+	@Test
+	public void testSecondRunWritesNothing() throws ParseException, IOException {
+		File targetFile = getFile(files.get(2).right);
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setWriteMode(WriteMode.SPLICE);
+		assertTrue(cg.parse(targetFile));
+		String annotated = FileUtils.readFileToString(targetFile, "UTF-8");
+		assertTrue(targetFile.setLastModified(1000L));
+
+		assertFalse(cg.parse(targetFile));
+		cg.setEngine(Engine.LEXER);
+		assertFalse(cg.parse(targetFile));
+		assertEquals(1000L, targetFile.lastModified());
+		assertEquals(annotated, FileUtils.readFileToString(targetFile, "UTF-8"));
+	}
+
+	@Test
+	public void testLexerEngineSplices() throws ParseException, IOException {
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		assertEquals(WriteMode.REPRINT, cg.getWriteMode());
+		cg.setEngine(Engine.LEXER);
+		assertEquals(WriteMode.SPLICE, cg.getWriteMode());
+		try {
+			cg.setWriteMode(WriteMode.REPRINT);
+			fail("The lexer can't reprint");
+		} catch (IllegalArgumentException e) {
+			assertEquals(WriteMode.SPLICE, cg.getWriteMode());
+		}
+		cg.setEngine(Engine.AST);
+		cg.setWriteMode(WriteMode.REPRINT);
+		assertEquals(WriteMode.REPRINT, cg.getWriteMode());
+	}
+
+	@Test
+	public void testSameContentIsNotWritten() throws ParseException, IOException {
+		File targetFile = getFile(files.get(0).right);
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_class.json"));
+		assertTrue(targetFile.setLastModified(1000L));
+		assertFalse(cg.writeFile(FileUtils.readFileToString(targetFile, "UTF-8"), targetFile, null));
+		assertEquals(1000L, targetFile.lastModified());
+		assertTrue(cg.writeFile("changed", targetFile, null));
+		assertEquals("changed", FileUtils.readFileToString(targetFile, "UTF-8"));
+	}
+
+	@Test
+	public void testReprintFormatsTheWholeFile() throws ParseException, IOException {
+		File targetFile = getFile(files.get(2).right);
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setWriteMode(WriteMode.REPRINT);
+		assertTrue(cg.parse(targetFile));
+
+		CompilationUnit expected = JavaParser.parse(getFile("src/test/resources/codegen/TestObjectResult.java"));
+		assertEquals(expected, JavaParser.parse(targetFile));
+		assertEquals(JavaParser.parse(targetFile).toString(), FileUtils.readFileToString(targetFile, "UTF-8"));
+	}
+
 	@Test
 	public void testAListOfFiles() throws IOException, ParseException, ParseExceptions {
 		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
@@ -212,6 +291,396 @@ public class CodeGeneratorTest {
 		assertTrue(parse.size() == 1);
 	}
 
+	@Test
+	public void testAListOfFilesInParallel() throws IOException, ParseException, ParseExceptions {
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setParallelism(4);
+		List<File> parse = cg.parse(getFile(files.get(0).right), getFile(files.get(1).right),
+				getFile(files.get(2).right));
+		assertEquals(1, parse.size());
+		assertEquals(getFile(files.get(2).right), parse.get(0));
+		File actualResult = getFile("src/test/resources/codegen/TestObjectResult.java");
+		assertEquals(JavaParser.parse(actualResult), JavaParser.parse(getFile(files.get(2).right)));
+	}
+
+	@Test(expected = ParseExceptions.class)
+	public void testParsingAMalformedFileInParallel() throws IOException, ParseException, ParseExceptions {
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setParallelism(2);
+		try {
+			cg.parse(new File[] { getFile(files.get(3).right), getFile(files.get(0).right),
+					getFile(files.get(2).right) });
+		} catch (ParseExceptions e) {
+			assertEquals(1, e.getExceptions().size());
+			assertEquals(getFile(files.get(3).right).toString(), e.getExceptions().get(0).getFileName());
+			throw e;
+		}
+	}
+
+	@Test
+	public void testBatchCommitLeavesTheTreeUntouchedOnFailure() throws IOException, ParseException {
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setBatchCommit(true);
+		cg.setParallelism(2);
+		File changed = getFile(files.get(2).right);
+		String original = FileUtils.readFileToString(changed, "UTF-8");
+		try {
+			cg.parse(new File[] { getFile(files.get(3).right), getFile(files.get(0).right), changed });
+			fail("Expected the corrupt file to fail the batch");
+		} catch (ParseExceptions e) {
+			assertEquals(1, e.getExceptions().size());
+		}
+		assertEquals(original, FileUtils.readFileToString(changed, "UTF-8"));
+		assertNoTempFiles(changed.getParentFile());
+	}
+
+	@Test
+	public void testBatchCommitReportsNothingAsChangedOnFailure() throws IOException, ParseException {
+		File sources = getFile("target/test/rollback/src");
+		File output = getFile("target/test/rollback/generated");
+		FileUtils.deleteDirectory(sources.getParentFile());
+		copy(files.get(0).left, "target/test/rollback/src/codegen/TestClass.java");
+		copy(files.get(2).left, "target/test/rollback/src/codegen/TestObject.java");
+		copy(files.get(3).left, "target/test/rollback/src/codegen/CorruptJavaFile.java");
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setBatchCommit(true);
+		cg.setOutputDirectory(sources, output);
+		final Map<String, FileResult> results = new ConcurrentHashMap<String, FileResult>();
+		try {
+			cg.parse(Arrays.asList(new File(sources, "codegen/TestClass.java"),
+					new File(sources, "codegen/TestObject.java"), new File(sources, "codegen/CorruptJavaFile.java")),
+					new FileResultListener() {
+						@Override
+						public void onResult(FileResult result) {
+							results.put(result.getFile().getName(), result);
+						}
+					});
+			fail("Expected the corrupt file to fail the batch");
+		} catch (ParseExceptions e) {
+			assertEquals(1, e.getExceptions().size());
+		}
+		assertEquals(3, results.size());
+		assertEquals(FileResult.Status.UNCHANGED, results.get("TestClass.java").getStatus());
+		assertEquals(FileResult.Status.FAILED, results.get("TestObject.java").getStatus());
+		assertTrue(results.get("TestObject.java").getError() instanceof IOException);
+		assertTrue(results.get("CorruptJavaFile.java").getError() instanceof ParseException);
+		// neither the changed file nor the pass-through of the unchanged one made it to the output
+		assertFalse(new File(output, "codegen/TestClass.java").exists());
+		assertFalse(new File(output, "codegen/TestObject.java").exists());
+		assertNoTempFiles(new File(output, "codegen"));
+	}
+
+	@Test
+	public void testBatchCommitWritesOnceEverythingWentThrough() throws IOException, ParseException, ParseExceptions {
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setBatchCommit(true);
+		cg.setExecutionMode(ExecutionMode.PIPELINE);
+		List<File> parse = cg.parse(getFile(files.get(0).right), getFile(files.get(2).right));
+		assertEquals(1, parse.size());
+		File actualResult = getFile("src/test/resources/codegen/TestObjectResult.java");
+		assertEquals(JavaParser.parse(actualResult), JavaParser.parse(getFile(files.get(2).right)));
+		assertNoTempFiles(getFile(files.get(2).right).getParentFile());
+	}
+
+	private void assertNoTempFiles(File directory) {
+		for (File file : directory.listFiles()) {
+			assertFalse(file.getName(), file.getName().endsWith(".tmp"));
+		}
+	}
+
+	@Test
+	public void testOutputDirectoryMirrorsTheSources() throws IOException, ParseException, ParseExceptions {
+		File sources = getFile("target/test/output/src");
+		File output = getFile("target/test/output/generated");
+		FileUtils.deleteDirectory(sources.getParentFile());
+		copy(files.get(0).left, "target/test/output/src/codegen/TestClass.java");
+		copy(files.get(2).left, "target/test/output/src/codegen/model/TestObject.java");
+		File unchanged = getFile("target/test/output/src/codegen/TestClass.java");
+		File changed = getFile("target/test/output/src/codegen/model/TestObject.java");
+		String original = FileUtils.readFileToString(changed, "UTF-8");
+
+		for (ExecutionMode mode : ExecutionMode.values()) {
+			CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+			cg.setExecutionMode(mode);
+			cg.setOutputDirectory(sources, output);
+			List<File> parse = cg.parse(unchanged, changed);
+			assertEquals(mode == ExecutionMode.values()[0] ? 1 : 0, parse.size());
+
+			assertEquals(original, FileUtils.readFileToString(changed, "UTF-8"));
+			assertEquals(JavaParser.parse(getFile("src/test/resources/codegen/TestObjectResult.java")),
+					JavaParser.parse(new File(output, "codegen/model/TestObject.java")));
+			assertTrue(FileUtils.contentEquals(unchanged, new File(output, "codegen/TestClass.java")));
+		}
+	}
+
+	@Test
+	public void testOutputDirectoryFollowsDeletesAndSameSizeEdits()
+			throws IOException, ParseException, ParseExceptions {
+		File sources = getFile("target/test/prune/src");
+		File output = getFile("target/test/prune/generated");
+		FileUtils.deleteDirectory(sources.getParentFile());
+		copy(files.get(0).left, "target/test/prune/src/codegen/TestClass.java");
+		copy(files.get(0).left, "target/test/prune/src/codegen/gone/Deleted.java");
+		File kept = getFile("target/test/prune/src/codegen/TestClass.java");
+		File deleted = getFile("target/test/prune/src/codegen/gone/Deleted.java");
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setOutputDirectory(sources, output);
+		cg.parse(kept, deleted);
+		File keptOutput = new File(output, "codegen/TestClass.java");
+		assertTrue(new File(output, "codegen/gone/Deleted.java").isFile());
+
+		assertTrue(deleted.delete());
+		assertTrue(deleted.getParentFile().delete());
+		// an edit that keeps the size and the timestamp, on a copy rather than a link
+		String content = FileUtils.readFileToString(kept, "UTF-8");
+		String edited = content.replace("param1", "first1");
+		assertEquals(content.length(), edited.length());
+		assertTrue(keptOutput.delete());
+		FileUtils.copyFile(kept, keptOutput, true);
+		long modified = kept.lastModified();
+		FileUtils.writeStringToFile(kept, edited, "UTF-8");
+		assertTrue(kept.setLastModified(modified));
+		assertTrue(keptOutput.setLastModified(modified));
+		cg.parse(Arrays.asList(kept));
+
+		assertFalse(new File(output, "codegen/gone").exists());
+		assertEquals(edited, FileUtils.readFileToString(keptOutput, "UTF-8"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testOutputDirectoryInsideTheSources() throws IOException, ParseException {
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setOutputDirectory(getFile("target/test"), getFile("target/test/generated"));
+	}
+
+	@Test
+	public void testCheckWritesNothing() throws IOException, ParseException, ParseExceptions {
+		File unchanged = getFile(files.get(0).right);
+		File changed = getFile(files.get(2).right);
+		String original = FileUtils.readFileToString(changed, "UTF-8");
+		assertTrue(changed.setLastModified(1000L));
+
+		for (Engine engine : Engine.values()) {
+			for (ExecutionMode mode : ExecutionMode.values()) {
+				CodeGenerator cg = new CodeGenerator(
+						getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+				cg.setEngine(engine);
+				cg.setExecutionMode(mode);
+				cg.setBatchCommit(true);
+				List<FileResult> pending = cg.check(Arrays.asList(unchanged, changed));
+				assertEquals(1, pending.size());
+				assertEquals(changed, pending.get(0).getFile());
+				assertEquals(Arrays.asList("codegen.TestObject", "codegen.TestObject#startDate"),
+						pending.get(0).getChanges());
+			}
+		}
+		assertEquals(original, FileUtils.readFileToString(changed, "UTF-8"));
+		assertEquals(1000L, changed.lastModified());
+
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		assertEquals(Arrays.asList(changed), cg.parse(unchanged, changed));
+		assertTrue(cg.check(Arrays.asList(unchanged, changed)).isEmpty());
+	}
+
+	@Test
+	public void testUnusedInvalidAnnotationOnlyFailsValidation() throws IOException, ParseException {
+		File config = getFile("target/test/config/cfg_invalid.json");
+		FileUtils.writeStringToFile(config, "{\"classes\":{\"codegen.TestClass\":{\"classAnnotations\":[\"@ClassAnnotation\"]},"
+				+ "\"codegen.Unused\":{\"classAnnotations\":[\"@Broken(\"]}}}", "UTF-8");
+		CodeGenerator cg = new CodeGenerator(config);
+		assertTrue(cg.parse(getFile(files.get(0).right)));
+
+		try {
+			cg.validateConfiguration();
+			fail("@Broken( is not an annotation");
+		} catch (ParseException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("codegen.Unused"));
+		}
+	}
+
+	@Test
+	public void testAListOfFilesInAPipeline() throws IOException, ParseException, ParseExceptions {
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setExecutionMode(ExecutionMode.PIPELINE);
+		cg.setParallelism(2);
+		List<File> parse = cg.parse(getFile(files.get(0).right), getFile(files.get(1).right),
+				getFile(files.get(2).right));
+		assertEquals(1, parse.size());
+		assertEquals(getFile(files.get(2).right), parse.get(0));
+		File actualResult = getFile("src/test/resources/codegen/TestObjectResult.java");
+		assertEquals(JavaParser.parse(actualResult), JavaParser.parse(getFile(files.get(2).right)));
+	}
+
+	@Test(expected = ParseExceptions.class)
+	public void testParsingAMalformedFileInAPipeline() throws IOException, ParseException, ParseExceptions {
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setExecutionMode(ExecutionMode.PIPELINE);
+		try {
+			cg.parse(new File[] { getFile(files.get(3).right), getFile(files.get(0).right),
+					getFile(files.get(2).right) });
+		} catch (ParseExceptions e) {
+			assertEquals(1, e.getExceptions().size());
+			assertEquals(getFile(files.get(3).right).toString(), e.getExceptions().get(0).getFileName());
+			throw e;
+		}
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void testMissingFileInAPipeline() throws IOException, ParseException, ParseExceptions {
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setExecutionMode(ExecutionMode.PIPELINE);
+		cg.parse(getFile(files.get(0).right), getFile("target/test/codegen/DoesNotExist.java"));
+	}
+
+	@Test
+	public void testListenerGetsAResultPerFile() throws IOException, ParseException {
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		final Map<File, FileResult> results = new ConcurrentHashMap<File, FileResult>();
+		try {
+			cg.parse(Arrays.asList(getFile(files.get(3).right), getFile(files.get(0).right),
+					getFile(files.get(2).right)), new FileResultListener() {
+						@Override
+						public void onResult(FileResult result) {
+							results.put(result.getFile(), result);
+						}
+					});
+			fail("Expected the corrupt file to fail");
+		} catch (ParseExceptions e) {
+			assertEquals(1, e.getExceptions().size());
+		}
+		assertEquals(3, results.size());
+		FileResult corrupt = results.get(getFile(files.get(3).right));
+		assertEquals(FileResult.Status.FAILED, corrupt.getStatus());
+		assertTrue(corrupt.getError() instanceof ParseException);
+		assertEquals(FileResult.Status.UNCHANGED, results.get(getFile(files.get(0).right)).getStatus());
+		FileResult changed = results.get(getFile(files.get(2).right));
+		assertEquals(FileResult.Status.CHANGED, changed.getStatus());
+		assertTrue(changed.getTotalTime(TimeUnit.NANOSECONDS) > 0);
+	}
+
+	@Test
+	public void testParseAsync() throws Exception {
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setExecutionMode(ExecutionMode.PIPELINE);
+		List<CompletableFuture<FileResult>> futures = cg.parseAsync(
+				Arrays.asList(getFile(files.get(0).right), getFile(files.get(2).right), getFile(files.get(3).right)));
+		assertEquals(3, futures.size());
+		assertEquals(FileResult.Status.UNCHANGED, futures.get(0).get(10, TimeUnit.SECONDS).getStatus());
+		assertEquals(FileResult.Status.CHANGED, futures.get(1).get(10, TimeUnit.SECONDS).getStatus());
+		assertEquals(FileResult.Status.FAILED, futures.get(2).get(10, TimeUnit.SECONDS).getStatus());
+		assertEquals(getFile(files.get(2).right), futures.get(1).get().getFile());
+	}
+
+	@Test
+	public void testPruneOutputWithoutABatch() throws IOException, ParseException, ParseExceptions {
+		File sources = getFile("target/test/pruneonly/src");
+		File output = getFile("target/test/pruneonly/generated");
+		FileUtils.deleteDirectory(sources.getParentFile());
+		copy(files.get(0).left, "target/test/pruneonly/src/codegen/TestClass.java");
+		File source = getFile("target/test/pruneonly/src/codegen/TestClass.java");
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		assertEquals(0, cg.pruneOutput());
+		cg.setOutputDirectory(sources, output);
+		cg.parse(source);
+		assertEquals(0, cg.pruneOutput());
+
+		assertTrue(source.delete());
+		assertEquals(1, cg.pruneOutput());
+		assertFalse(new File(output, "codegen/TestClass.java").exists());
+	}
+
+	@Test(timeout = 30000)
+	public void testPipelineEndsWhenAStageDiesFromAnError() throws Exception {
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json")) {
+			@Override
+			Output change(final String source) throws ParseException {
+				throw new StackOverflowError();
+			}
+		};
+		cg.setExecutionMode(ExecutionMode.PIPELINE);
+		cg.setParallelism(1);
+		List<File> many = new ArrayList<File>();
+		for (int i = 0; i < 50; i++) {
+			many.add(getFile(files.get(2).right));
+		}
+		try {
+			cg.parse(many);
+			fail("The error of the transforming stage should end the run");
+		} catch (StackOverflowError e) {
+			// the pipeline drained and ended
+		}
+	}
+
+	@Test
+	public void testCostHistoryIsWrittenAfterAParallelRun() throws IOException, ParseException, ParseExceptions {
+		File historyFile = getFile("target/test/history/codegen-test.properties");
+		historyFile.delete();
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setParallelism(2);
+		cg.setCostHistory(historyFile);
+		List<File> parse = cg.parse(getFile(files.get(0).right), getFile(files.get(2).right),
+				getFile(files.get(1).right));
+		assertEquals(Arrays.asList(getFile(files.get(2).right)), parse);
+		assertTrue(historyFile.isFile());
+		assertEquals(3, FileCostHistory.load(historyFile).estimate(Arrays.asList(getFile(files.get(0).right),
+				getFile(files.get(1).right), getFile(files.get(2).right))).length);
+	}
+
+	@Test
+	public void testSequentialRunLeavesTheCostHistoryAlone() throws IOException, ParseException, ParseExceptions {
+		File historyFile = getFile("target/test/history/codegen-sequential.properties");
+		historyFile.delete();
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setCostHistory(historyFile);
+		cg.parse(getFile(files.get(0).right), getFile(files.get(2).right));
+		assertFalse(historyFile.exists());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testParallelismMustBePositive() throws IOException, ParseException {
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setParallelism(0);
+	}
+
+	@Test
+	public void testSequentialRunStopsAtAnIOException() throws IOException, ParseException, ParseExceptions {
+		File missing = getFile("target/test/codegen/Missing.java");
+		File changed = getFile(files.get(2).right);
+		String original = FileUtils.readFileToString(changed, "UTF-8");
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		final List<FileResult> reported = new ArrayList<FileResult>();
+		try {
+			cg.parse(Arrays.asList(missing, changed), new FileResultListener() {
+				@Override
+				public void onResult(final FileResult result) {
+					reported.add(result);
+				}
+			});
+			fail("The missing file should fail the run");
+		} catch (FileNotFoundException e) {
+			// the error of the missing file, not of the one after it
+		}
+		assertEquals(original, FileUtils.readFileToString(changed, "UTF-8"));
+		assertEquals(2, reported.size());
+		assertEquals(FileResult.Status.FAILED, reported.get(1).getStatus());
+	}
+
+	@Test
+	public void testParallelRunGoesOnAfterAnIOException() throws IOException, ParseException, ParseExceptions {
+		File missing = getFile("target/test/codegen/Missing.java");
+		File changed = getFile(files.get(2).right);
+		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setParallelism(2);
+		try {
+			cg.parse(missing, changed);
+			fail("The missing file should fail the run");
+		} catch (FileNotFoundException e) {
+			// thrown once every file has been processed
+		}
+		assertEquals(JavaParser.parse(getFile("src/test/resources/codegen/TestObjectResult.java")),
+				JavaParser.parse(changed));
+	}
+
 	@Test(expected = NullPointerException.class)
 	public void testToParseANotExistingFile() throws IOException, ParseException {
 		CodeGenerator cg = new CodeGenerator(getFile("src/test/resources/codegen/cfg_severalannotationsbug.json"));
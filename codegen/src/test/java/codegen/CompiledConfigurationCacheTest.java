@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompiledConfigurationCacheTest {
+
+	private final File root = new File("target/test/configcache").getAbsoluteFile();
+	private final File config = new File("src/test/resources/codegen/cfg_class.json").getAbsoluteFile();
+	private final File nested = new File("src/test/resources/codegen/cfgnested.json").getAbsoluteFile();
+	private final File snapshots = new File(root, "snapshots");
+
+	@Before
+	public void setup() throws IOException {
+		FileUtils.deleteDirectory(root);
+		CompiledConfigurationCache.clear();
+	}
+
+	@Test
+	public void testSameContentIsCompiledOnce() throws Exception {
+		final File copy = new File(root, "module/cfg_class.json");
+		FileUtils.copyFile(config, copy);
+
+		final InternalConfiguration first = CompiledConfigurationCache.get(config);
+		assertSame(first, CompiledConfigurationCache.get(copy));
+		assertEquals(1, CompiledConfigurationCache.size());
+	}
+
+	@Test
+	public void testChangedContentIsCompiledAgain() throws Exception {
+		final File copy = new File(root, "module/cfg_class.json");
+		FileUtils.copyFile(config, copy);
+		final InternalConfiguration first = CompiledConfigurationCache.get(copy);
+
+		FileUtils.writeStringToFile(copy,
+				"{\"classes\":{\"codegen.TestClass\":{\"classAnnotations\":[\"@OtherAnnotation\"]}}}", "UTF-8");
+		assertNotSame(first, CompiledConfigurationCache.get(copy));
+		assertEquals(2, CompiledConfigurationCache.size());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() throws Exception {
+		final InternalConfiguration first = CompiledConfigurationCache.get(config);
+		for (int i = 0; i < CompiledConfigurationCache.MAX_ENTRIES; i++) {
+			final File other = new File(root, i + ".json");
+			FileUtils.writeStringToFile(other,
+					"{\"classes\":{\"codegen.TestClass" + i + "\":{\"classAnnotations\":[\"@ClassAnnotation\"]}}}",
+					"UTF-8");
+			CompiledConfigurationCache.get(other);
+		}
+		assertEquals(CompiledConfigurationCache.MAX_ENTRIES, CompiledConfigurationCache.size());
+		assertNotSame(first, CompiledConfigurationCache.get(config));
+	}
+
+	@Test
+	public void testMergedFilesAreKeyedInOrder() throws Exception {
+		final InternalConfiguration merged = CompiledConfigurationCache.get(Arrays.asList(config, nested), null);
+		assertSame(merged, CompiledConfigurationCache.get(Arrays.asList(config, nested), null));
+		assertNotSame(merged, CompiledConfigurationCache.get(Arrays.asList(nested, config), null));
+		assertSame(CompiledConfigurationCache.get(config), CompiledConfigurationCache.get(Arrays.asList(config), null));
+		assertEquals(3, CompiledConfigurationCache.size());
+	}
+
+	@Test
+	public void testSnapshotReadsBackTheCompiledConfiguration() throws Exception {
+		final InternalConfiguration compiled = ConfigurationLoader
+				.load(Collections.singletonList(Files.readAllBytes(nested.toPath())));
+		final File file = new File(snapshots, "nested.snapshot");
+		ConfigurationSnapshot.write(compiled, file);
+
+		final InternalConfiguration read = ConfigurationSnapshot.read(file);
+		assertEquals(compiled.getClassNames(), read.getClassNames());
+		assertEquals(compiled.getEncoding(), read.getEncoding());
+		for (String name : compiled.getClassNames()) {
+			final InternalConfiguration.ClazzContainer expected = compiled.getClass(name);
+			final InternalConfiguration.ClazzContainer actual = read.getClass(name);
+			assertEquals(expected.getClassAnnotationSources(), actual.getClassAnnotationSources());
+			assertEquals(expected.getFieldAnnotationSources(), actual.getFieldAnnotationSources());
+			assertEquals(expected.getMethodAnnotationSources(), actual.getMethodAnnotationSources());
+		}
+		assertSame(read.getClass("codegen.NestedTestClass"),
+				read.getTypes().find("codegen.NestedTestClass").getClazz());
+	}
+
+	@Test
+	public void testLaterBuildReadsTheSnapshot() throws Exception {
+		CompiledConfigurationCache.get(nested, snapshots);
+		final File[] written = snapshots.listFiles();
+		assertEquals(1, written.length);
+
+		// a snapshot of other content under the same name shows which of them the next build used
+		ConfigurationSnapshot.write(CompiledConfigurationCache.get(config), written[0]);
+		CompiledConfigurationCache.clear();
+		assertEquals(Collections.singleton("codegen.TestClass"),
+				CompiledConfigurationCache.get(nested, snapshots).getClassNames());
+	}
+
+	@Test
+	public void testDamagedSnapshotIsCompiledAgain() throws Exception {
+		CompiledConfigurationCache.get(nested, snapshots);
+		final File snapshot = snapshots.listFiles()[0];
+		FileUtils.writeStringToFile(snapshot, "not a snapshot", "UTF-8");
+		CompiledConfigurationCache.clear();
+
+		final InternalConfiguration config = CompiledConfigurationCache.get(nested, snapshots);
+		assertEquals(2, config.getClassNames().size());
+		assertNotNull(ConfigurationSnapshot.read(snapshot));
+	}
+
+	@Test
+	public void testDamagedClassIsFoundWhenTheSnapshotIsRead() throws Exception {
+		CompiledConfigurationCache.get(nested, snapshots);
+		final File snapshot = snapshots.listFiles()[0];
+		final byte[] bytes = Files.readAllBytes(snapshot.toPath());
+		// the last byte belongs to the last class, the index still reads fine
+		bytes[bytes.length - 1] ^= 1;
+		Files.write(snapshot.toPath(), bytes);
+		try {
+			ConfigurationSnapshot.read(snapshot);
+			fail("Expected the checksum to fail");
+		} catch (IOException e) {
+			// expected
+		}
+		CompiledConfigurationCache.clear();
+
+		assertEquals(2, CompiledConfigurationCache.get(nested, snapshots).getClassNames().size());
+		assertNotNull(ConfigurationSnapshot.read(snapshot));
+	}
+
+	@Test
+	public void testSnapshotNameCarriesTheProjectVersion() throws Exception {
+		assertNotNull(ConfigurationSnapshot.ENGINE_VERSION);
+		assertFalse(ConfigurationSnapshot.ENGINE_VERSION.contains("null"));
+		assertTrue(ConfigurationSnapshot.fileName("hash").contains(ConfigurationSnapshot.ENGINE_VERSION));
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.fasterxml.jackson.core.JsonParseException;
+
+import codegen.InternalConfiguration.ClazzContainer;
+
+public class ConfigurationLoaderTest {
+
+	@Rule
+	public ExpectedException expected = ExpectedException.none();
+
+	@Test
+	public void testSameAsDataBinding() throws IOException {
+		final File[] configs = new File("src/test/resources/codegen").listFiles();
+		int compared = 0;
+		for (File config : configs) {
+			if (!config.getName().endsWith(".json")) {
+				continue;
+			}
+			final Configuration bound = Configuration.parse(config);
+			final InternalConfiguration streamed = ConfigurationLoader
+					.load(Collections.singletonList(Files.readAllBytes(config.toPath())));
+			assertEquals(config.getName(), bound.getClasses().keySet(), streamed.getClassNames());
+			assertEquals(config.getName(), bound.getEncoding() != null ? Charset.forName(bound.getEncoding())
+					: InternalConfiguration.DEFAULT_ENCODING, streamed.getEncoding());
+			for (String name : bound.getClasses().keySet()) {
+				assertSameSources(bound.getClass(name), streamed.getClass(name));
+			}
+			compared++;
+		}
+		assertTrue(compared > 0);
+	}
+
+	@Test
+	public void testLaterFileTakesPrecedence() throws IOException {
+		final InternalConfiguration config = load(
+				"{\"classes\":{\"a.A\":{\"classAnnotations\":[\"@First\"],"
+						+ "\"fieldAnnotations\":{\"kept\":[\"@Kept\"],\"field\":[\"@First\"]}},"
+						+ "\"a.B\":{\"classAnnotations\":[\"@OnlyFirst\"]}}}",
+				"{\"encoding\":\"ISO-8859-1\",\"classes\":{\"a.A\":{\"fieldAnnotations\":{\"field\":[\"@Second\"]},"
+						+ "\"methodAnnotations\":{\"method()\":[\"@Second\"]}}}}");
+
+		assertEquals(Charset.forName("ISO-8859-1"), config.getEncoding());
+		final ClazzContainer a = config.getClass("a.A");
+		assertEquals(Arrays.asList("@First"), a.getClassAnnotationSources());
+		assertEquals(Arrays.asList("@Kept"), a.getFieldAnnotationSources().get("kept"));
+		assertEquals(Arrays.asList("@Second"), a.getFieldAnnotationSources().get("field"));
+		assertEquals(Arrays.asList("@Second"), a.getMethodAnnotationSources().get("method()"));
+		assertEquals(Arrays.asList("@OnlyFirst"), config.getClass("a.B").getClassAnnotationSources());
+
+		final InternalConfiguration reversed = load(
+				"{\"classes\":{\"a.A\":{\"classAnnotations\":[\"@Second\"]}}}",
+				"{\"classes\":{\"a.A\":{\"classAnnotations\":[\"@First\"]}}}");
+		assertEquals(Arrays.asList("@First"), reversed.getClass("a.A").getClassAnnotationSources());
+	}
+
+	@Test
+	public void testNullIsNothingConfigured() throws IOException {
+		final InternalConfiguration config = load(
+				"{\"encoding\":null,\"classes\":{\"a.A\":{\"classAnnotations\":null,\"fieldAnnotations\":null}}}");
+
+		assertEquals(InternalConfiguration.DEFAULT_ENCODING, config.getEncoding());
+		assertTrue(config.getClass("a.A").getClassAnnotations().isEmpty());
+		assertTrue(config.getClass("a.A").getFieldAnnotations("field").isEmpty());
+	}
+
+	@Test
+	public void testUnknownPropertyFails() throws IOException {
+		expected.expect(JsonParseException.class);
+		expected.expectMessage("classAnnotation");
+		load("{\"classes\":{\"a.A\":{\"classAnnotation\":[\"@Typo\"]}}}");
+	}
+
+	@Test
+	public void testAnnotationMustBeAString() throws IOException {
+		expected.expect(JsonParseException.class);
+		load("{\"classes\":{\"a.A\":{\"classAnnotations\":[{\"name\":\"@A\"}]}}}");
+	}
+
+	private InternalConfiguration load(final String... contents) throws IOException {
+		final List<byte[]> bytes = new ArrayList<byte[]>();
+		for (String content : contents) {
+			bytes.add(content.getBytes("UTF-8"));
+		}
+		return ConfigurationLoader.load(bytes);
+	}
+
+	private void assertSameSources(final Configuration.ClazzContainer expected, final ClazzContainer actual) {
+		assertEquals(expected.getClassAnnotations(), actual.getClassAnnotationSources());
+		assertEquals(expected.getFieldAnnotations(), actual.getFieldAnnotationSources());
+		assertEquals(expected.getMethodAnnotations(), actual.getMethodAnnotationSources());
+	}
+}
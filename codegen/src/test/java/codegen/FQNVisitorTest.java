@@ -66,6 +66,29 @@ public class FQNVisitorTest {
 		assertEquals(packageName + "." + "TestClass", FQN2);
 	}
 
+	@Test
+	public void testReusedExtractor() throws ParseException {
+		/* @formatter:off */
+		String file =
+				"package test;"+
+				"public class TestClass {"+
+				"	public String field;"+
+				"	public static class Inner {"+
+				"		public void method(){}"+
+				"	}"+
+				"}";
+		/* @formatter:on */
+		CompilationUnit cu = JavaParser.parse(new ByteArrayInputStream(file.getBytes(Charset.forName("UTF-8"))));
+		TypeDeclaration outer = cu.getTypes().get(0);
+		TypeDeclaration inner = (TypeDeclaration) outer.getMembers().get(1);
+
+		FQNExtractor extractor = new FQNExtractor();
+		assertEquals("test.TestClass.Inner", extractor.find(inner.getMembers().get(0)));
+		assertEquals("test.TestClass", extractor.find(outer.getMembers().get(0)));
+		assertEquals("test.TestClass.Inner", extractor.find(inner));
+		assertEquals("test.TestClass", new FQNExtractor(outer).find());
+	}
+
 	/* This test shows that when you set the parent of a ClassOrInterfaceDeclaration the assertion fails, unless you add members to the class.*/
 	@Test
 	@Ignore
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileCostHistoryTest {
+
+	private final File root = new File("target/test/history").getAbsoluteFile();
+	private File small;
+	private File big;
+	private File unknown;
+
+	@Before
+	public void setup() throws IOException {
+		FileUtils.deleteDirectory(root);
+		small = write("Small.java", 10);
+		big = write("Big.java", 1000);
+		unknown = write("Unknown.java", 100);
+	}
+
+	@Test
+	public void testRecordedCostsSurviveASaveAndLoad() throws IOException {
+		File historyFile = new File(root, "costs/history.properties");
+		FileCostHistory history = FileCostHistory.load(historyFile);
+		history.record(new FileResult(small, FileResult.Status.CHANGED, null, 100, 5000, 100));
+		history.record(new FileResult(big, FileResult.Status.UNCHANGED, null, 100, 900, 0));
+		history.save(Arrays.asList(small, big));
+		assertTrue(historyFile.isFile());
+
+		long[] estimates = FileCostHistory.load(historyFile).estimate(Arrays.asList(small, big));
+		assertEquals(5200, estimates[0]);
+		assertEquals(1000, estimates[1]);
+	}
+
+	@Test
+	public void testFilesAreKeyedRelativeToTheHistoryFile() throws IOException {
+		File historyFile = new File(root, "costs/history.properties");
+		FileCostHistory history = FileCostHistory.load(historyFile);
+		history.record(new FileResult(small, FileResult.Status.CHANGED, null, 100, 5000, 100));
+		history.save(Arrays.asList(small));
+
+		String saved = FileUtils.readFileToString(historyFile, "ISO-8859-1");
+		assertTrue(saved, saved.contains("../Small.java=5200"));
+		assertFalse(saved, saved.contains(root.getPath()));
+		assertEquals(1, historyFile.getParentFile().list().length);
+	}
+
+	@Test
+	public void testOnlyTheFilesOfTheBatchAreSaved() throws IOException {
+		File historyFile = new File(root, "costs/history.properties");
+		FileCostHistory history = FileCostHistory.load(historyFile);
+		history.record(new FileResult(small, FileResult.Status.CHANGED, null, 100, 5000, 100));
+		history.record(new FileResult(big, FileResult.Status.CHANGED, null, 100, 900, 0));
+		history.save(Arrays.asList(small, big));
+
+		history = FileCostHistory.load(historyFile);
+		history.record(new FileResult(unknown, FileResult.Status.CHANGED, null, 100, 900, 0));
+		history.save(Arrays.asList(small, unknown));
+
+		String saved = FileUtils.readFileToString(historyFile, "ISO-8859-1");
+		assertTrue(saved, saved.contains("../Small.java=5200"));
+		assertTrue(saved, saved.contains("../Unknown.java=1000"));
+		assertFalse(saved, saved.contains("Big.java"));
+	}
+
+	@Test
+	public void testFilesWithoutHistoryAreEstimatedFromTheirSize() throws IOException {
+		FileCostHistory history = FileCostHistory.load(new File(root, "missing.properties"));
+		history.record(new FileResult(small, FileResult.Status.CHANGED, null, 0, 500, 0));
+		history.record(new FileResult(big, FileResult.Status.CHANGED, null, 0, 50000, 0));
+
+		long[] estimates = history.estimate(Arrays.asList(unknown, small, big));
+		assertEquals(5000, estimates[0]);
+	}
+
+	@Test
+	public void testFailedFilesAreNotRecorded() throws IOException {
+		FileCostHistory history = FileCostHistory.load(new File(root, "missing.properties"));
+		history.record(FileResult.failed(small, new IOException(), 999999, 0, 0));
+		assertEquals(10, history.estimate(Arrays.asList(small))[0]);
+	}
+
+	@Test
+	public void testScheduleStartsWithTheMostExpensiveFile() throws IOException, ParseExceptions {
+		List<File> files = Arrays.asList(small, big, unknown);
+		BatchResults results = new BatchResults(files, null);
+		results.schedule(FileCostHistory.sizes(files));
+		assertEquals(1, results.index(0));
+		assertEquals(2, results.index(1));
+		assertEquals(0, results.index(2));
+
+		for (int position = 0; position < files.size(); position++) {
+			int index = results.index(position);
+			results.complete(index, new FileResult(files.get(index), FileResult.Status.CHANGED, null, 0, 0, 0));
+		}
+		assertEquals(files, results.collect());
+	}
+
+	private File write(String name, int size) throws IOException {
+		File file = new File(root, name);
+		char[] content = new char[size];
+		Arrays.fill(content, ' ');
+		FileUtils.writeStringToFile(file, new String(content), "UTF-8");
+		return file;
+	}
+}
@@ -15,7 +15,12 @@
 */
 package codegen;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -24,6 +29,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseException;
 import com.github.javaparser.ast.expr.AnnotationExpr;
 
 public class InternalConfigurationTest {
@@ -53,4 +60,42 @@ public class InternalConfigurationTest {
 		expected.expectMessage("methodAnnotations");
 		new InternalConfiguration.ClazzContainer(listDummy, dummy, null);
 	}
+
+	@Test
+	public void testAnnotationsAreCompiledOnce() throws ParseException {
+		Map<String, List<String>> fields = new HashMap<String, List<String>>();
+		fields.put("field", Arrays.asList("@FieldAnnotation(1)"));
+		InternalConfiguration.ClazzContainer clazz = InternalConfiguration.ClazzContainer
+				.of(Arrays.asList("@ClassAnnotation"), fields, new HashMap<String, List<String>>());
+
+		assertEquals(Arrays.asList(JavaParser.parseAnnotation("@FieldAnnotation(1)")),
+				clazz.getFieldAnnotations("field"));
+		assertSame(clazz.getFieldAnnotations("field"), clazz.getFieldAnnotations("field"));
+		assertSame(clazz.getClassAnnotations(), clazz.getClassAnnotations());
+		assertEquals(Collections.emptyList(), clazz.getMethodAnnotations("method()"));
+	}
+
+	@Test
+	public void testInvalidAnnotationFailsOnlyWhenUsed() {
+		Map<String, List<String>> fields = new HashMap<String, List<String>>();
+		fields.put("field", Arrays.asList("@FieldAnnotation("));
+		InternalConfiguration.ClazzContainer clazz = InternalConfiguration.ClazzContainer
+				.of(Arrays.asList("@ClassAnnotation"), fields, new HashMap<String, List<String>>());
+
+		assertEquals(1, clazz.getClassAnnotations().size());
+		expected.expect(IllegalArgumentException.class);
+		clazz.getFieldAnnotations("field");
+	}
+
+	@Test
+	public void testValidateNamesTheClass() throws ParseException {
+		Map<String, InternalConfiguration.ClazzContainer> classes = new HashMap<String, InternalConfiguration.ClazzContainer>();
+		classes.put("test.TestClass", InternalConfiguration.ClazzContainer.of(Arrays.asList("@ClassAnnotation(\"x\""),
+				new HashMap<String, List<String>>(), new HashMap<String, List<String>>()));
+		InternalConfiguration config = new InternalConfiguration(classes);
+
+		expected.expect(ParseException.class);
+		expected.expectMessage("test.TestClass");
+		config.validate();
+	}
 }
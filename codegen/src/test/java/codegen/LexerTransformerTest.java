@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseException;
+import com.github.javaparser.ast.expr.AnnotationExpr;
+
+public class LexerTransformerTest {
+
+	private static final String[] SOURCES = { "TestClass.java", "TestObject.java", "NestedTestClass.java" };
+	private static final String[] CONFIGS = { "cfg.json", "cfg_class.json", "cfg_doubleannotation.json",
+			"cfg_field.json", "cfg_fieldannotationwithvalue.json", "cfg_method.json", "cfg_method2params.json",
+			"cfg_methodpatterns.json", "cfg_severalannotationsbug.json", "cfgnested.json" };
+
+	@Test
+	public void testSameResultAsTheAstEngine() throws Exception {
+		for (String config : CONFIGS) {
+			final CodeGenerator ast = new CodeGenerator(new File("src/test/resources/codegen/" + config));
+			ast.setWriteMode(WriteMode.SPLICE);
+			for (String source : SOURCES) {
+				final String content = FileUtils.readFileToString(new File("src/test/resources/codegen/" + source),
+						"UTF-8");
+				assertEquals(config + " " + source, transform(ast, content), lexer(config, content).transform());
+			}
+		}
+	}
+
+	@Test
+	public void testMethodPatterns() throws Exception {
+		final String source = "package codegen;\npublic class TestClass {\n\tpublic void method() {}\n"
+				+ "\tpublic void method(String a, java.util.List<String> b) {}\n\tpublic void other() {}\n}\n";
+		final String expected = "package codegen;\npublic class TestClass {\n\t@AnyMethod\n\tpublic void method() {}\n"
+				+ "\t@TwoParams\n\tpublic void method(String a, java.util.List<String> b) {}\n"
+				+ "\tpublic void other() {}\n}\n";
+		assertEquals(expected, lexer("cfg_methodpatterns.json", source).transform());
+	}
+
+	@Test
+	public void testMergeStrategiesAsTheAstEngine() throws Exception {
+		final String source = "package codegen;\nimport javax.persistence.Table;\n"
+				+ "import javax.validation.constraints.*;\n@Table(schema = \"s\")\npublic class TestClass {\n"
+				+ "\t@NotNull\n\t@Size(min = 1)\n\tprivate String field;\n}\n";
+		final CodeGenerator ast = new CodeGenerator(new File("src/test/resources/codegen/cfg_merge.json"));
+		ast.setWriteMode(WriteMode.SPLICE);
+		for (MergeStrategy strategy : MergeStrategy.values()) {
+			ast.setMergeStrategy(strategy);
+			assertEquals(strategy.name(), transform(ast, source), new LexerTransformer(
+					CompiledConfigurationCache.get(new File("src/test/resources/codegen/cfg_merge.json")), source,
+					strategy).transform());
+		}
+	}
+
+	@Test
+	public void testOnDemandImportsAsTheAstEngine() throws Exception {
+		final CodeGenerator ast = new CodeGenerator(new File("src/test/resources/codegen/cfg_merge.json"));
+		ast.setWriteMode(WriteMode.SPLICE);
+		for (String imports : new String[] { "import javax.validation.constraints.*;\n", "import lombok.*;\n" }) {
+			final String source = "package codegen;\n" + imports + "public class TestClass {\n\t@NotNull\n"
+					+ "\tprivate String field;\n}\n";
+			for (MergeStrategy strategy : MergeStrategy.values()) {
+				ast.setMergeStrategy(strategy);
+				final String expected = transform(ast, source);
+				assertEquals(imports + strategy, expected, new LexerTransformer(
+						CompiledConfigurationCache.get(new File("src/test/resources/codegen/cfg_merge.json")), source,
+						strategy).transform());
+				// a lombok @NotNull is another annotation, the configured one goes next to it
+				assertEquals(imports + strategy, imports.contains("lombok"),
+						expected.contains("@javax.validation.constraints.NotNull"));
+			}
+		}
+	}
+
+	@Test
+	public void testTypeInTheDefaultPackage() throws Exception {
+		final Map<String, InternalConfiguration.ClazzContainer> map = new HashMap<String, InternalConfiguration.ClazzContainer>();
+		final List<AnnotationExpr> classAnnotations = new ArrayList<AnnotationExpr>();
+		classAnnotations.add(JavaParser.parseAnnotation("@ClassAnnotation"));
+		map.put("TestClass", new InternalConfiguration.ClazzContainer(classAnnotations,
+				new HashMap<String, List<AnnotationExpr>>(), new HashMap<String, List<AnnotationExpr>>()));
+		final String source = "public class TestClass {\n\tpublic String field;\n}\n";
+
+		final LexerTransformer lexer = new LexerTransformer(new InternalConfiguration(map), source);
+		assertEquals("@ClassAnnotation\npublic class TestClass {\n\tpublic String field;\n}\n", lexer.transform());
+		assertEquals(Arrays.asList("TestClass"), lexer.getChanges());
+	}
+
+	@Test
+	public void testUnconfiguredPackage() throws Exception {
+		final String source = "package other;\npublic class TestClass {\n\tprivate String field;\n}\n";
+		assertNull(lexer("cfg_class.json", source).transform());
+	}
+
+	@Test
+	public void testInsertsWithoutParsingBodies() throws Exception {
+		final String source = "package codegen;\n\npublic class TestClass {\n\tprivate String field = \"}\";\n"
+				+ "\tpublic void method() { if (x) { return; } }\n}\n";
+		final String expected = "package codegen;\n\n@ClassAnnotation\npublic class TestClass {\n"
+				+ "\tprivate String field = \"}\";\n\tpublic void method() { if (x) { return; } }\n}\n";
+		assertEquals(expected, lexer("cfg_class.json", source).transform());
+	}
+
+	@Test
+	public void testUnicodeEscapeIsLeftToTheParser() throws Exception {
+		assertUnsupported("package codegen;\npublic class TestClass {\n\tchar c = '\\u0041';\n}\n");
+		assertUnsupported("package codegen;\npublic class Test\\u0043lass {\n}\n");
+	}
+
+	@Test
+	public void testTypeAnnotationIsLeftToTheParser() throws Exception {
+		assertUnsupported("package codegen;\npublic class TestClass {\n\tprivate List<@NonNull String> field;\n}\n");
+	}
+
+	@Test
+	public void testFallsBackToTheAstEngine() throws IOException, ParseException {
+		final String source = "package codegen;\n\npublic class TestClass {\n\tchar c = '\\u0041';\n}\n";
+		final CodeGenerator generator = new CodeGenerator(new File("src/test/resources/codegen/cfg_class.json"));
+		generator.setWriteMode(WriteMode.SPLICE);
+		final String expected = transform(generator, source);
+		generator.setEngine(Engine.LEXER);
+		assertEquals(expected, transform(generator, source));
+	}
+
+	private void assertUnsupported(final String source) throws Exception {
+		try {
+			lexer("cfg_class.json", source).transform();
+			fail("Expected the lexer to give up on " + source);
+		} catch (LexerTransformer.Unsupported e) {
+			// expected
+		}
+	}
+
+	private static String transform(final CodeGenerator generator, final String source) throws ParseException {
+		final Output output = generator.change(source);
+		return output != null ? output.toString() : null;
+	}
+
+	private LexerTransformer lexer(final String config, final String source) throws Exception {
+		return new LexerTransformer(CompiledConfigurationCache.get(new File("src/test/resources/codegen/" + config)),
+				source);
+	}
+}
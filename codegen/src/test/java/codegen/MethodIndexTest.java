@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class MethodIndexTest {
+
+	@Test
+	public void testRejectsOnNameAndArity() {
+		final MethodIndex<String> index = index("method(String,String)", "exact");
+
+		assertTrue(index.has("method", 2));
+		assertFalse(index.has("method", 1));
+		assertFalse(index.has("other", 2));
+		assertFalse(MethodIndex.build(Collections.<String, String> emptyMap()).has("method", 0));
+	}
+
+	@Test
+	public void testWhitespaceAndTypeArguments() {
+		final MethodIndex<String> index = index("method(Map<String, Integer>)", "map", "method(List)", "list",
+				" put ( String , int ) ", "put");
+
+		assertEquals("map", index.find("method", types("Map<String,Integer>")));
+		assertEquals("list", index.find("method", types("List<String>")));
+		assertNull(index.find("method", types("Map<String, Long>")));
+		assertEquals("put", index.find("put(String,int)"));
+		assertEquals("put", index.find("put", types("String", "int")));
+	}
+
+	@Test
+	public void testWildcards() {
+		final MethodIndex<String> index = index("method(*)", "any", "method(String,*)", "second",
+				"method(String,int)", "exact", "method()", "none");
+
+		assertEquals("none", index.find("method()"));
+		assertEquals("exact", index.find("method", types("String", "int")));
+		assertEquals("second", index.find("method", types("String", "long")));
+		assertEquals("any", index.find("method", types("int", "long")));
+		assertEquals("any", index.find("method", types("int", "long", "short")));
+		assertTrue(index.has("method", 5));
+	}
+
+	@Test
+	public void testNotASignature() {
+		final MethodIndex<String> index = index("method", "broken");
+
+		assertFalse(index.has("method", 0));
+		assertNull(index.find("method"));
+	}
+
+	private static MethodIndex<String> index(final String... signaturesAndValues) {
+		final Map<String, String> map = new HashMap<String, String>();
+		for (int i = 0; i < signaturesAndValues.length; i += 2) {
+			map.put(signaturesAndValues[i], signaturesAndValues[i + 1]);
+		}
+		return MethodIndex.build(map);
+	}
+
+	private static List<String> types(final String... types) {
+		return Arrays.asList(types);
+	}
+}
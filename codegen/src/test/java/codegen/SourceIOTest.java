@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SourceIOTest {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private final File root = new File("target/test/sourceio").getAbsoluteFile();
+
+	@Before
+	public void setup() throws IOException {
+		FileUtils.deleteDirectory(root);
+		assertTrue(root.mkdirs());
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		assertRoundTrip(UTF_8, "package test;\r\npublic class TestClass {}\r\n");
+		assertRoundTrip(UTF_8, "package test;\n// h\u00e4r \u2603\npublic class TestClass {}\n");
+		assertRoundTrip(UTF_8, "\ufeffpackage test;\n");
+		assertRoundTrip(ISO_8859_1, "package test;\n// h\u00e4r\npublic class TestClass {}\n");
+		assertRoundTrip(Charset.forName("UTF-16"), "package test;\n// h\u00e4r\n");
+	}
+
+	@Test
+	public void testDecodesLikeString() throws IOException {
+		byte[] malformed = { 'a', (byte) 0xc3, 'b', (byte) 0xff };
+		File file = write("Malformed.java", malformed);
+		SourceIO io = new SourceIO(UTF_8);
+		assertEquals(new String(malformed, UTF_8), io.decode(io.read(file)));
+	}
+
+	@Test
+	public void testBigFilesAreNotPooled() throws IOException {
+		StringBuilder sb = new StringBuilder("package test;\n");
+		while (sb.length() <= SourceIO.POOL_THRESHOLD) {
+			sb.append("// \u00e5\u00e4\u00f6 filler line\n");
+		}
+		File file = write("Big.java", sb.toString().getBytes(UTF_8));
+		SourceIO io = new SourceIO(UTF_8);
+		ByteBuffer content = io.read(file);
+		assertTrue(content.hasArray());
+		assertNotSame(content, io.read(file));
+		assertEquals(sb.toString(), io.decode(content));
+		assertTrue(io.hasContent(file, io.encode(sb.toString())));
+		assertFalse(io.hasContent(file, io.encode(sb.toString().replace("filler", "f1ller"))));
+	}
+
+	@Test
+	public void testHasContent() throws IOException {
+		SourceIO io = new SourceIO(UTF_8);
+		File file = write("Same.java", "class A {}".getBytes(UTF_8));
+		assertTrue(io.hasContent(file, io.encode("class A {}")));
+		assertFalse(io.hasContent(file, io.encode("class B {}")));
+		assertFalse(io.hasContent(file, io.encode("class A { }")));
+		assertFalse(io.hasContent(new File(root, "Missing.java"), io.encode("class A {}")));
+	}
+
+	@Test
+	public void testSameContent() throws IOException {
+		SourceIO io = new SourceIO(UTF_8);
+		byte[] content = new byte[20000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) ('a' + i % 26);
+		}
+		File left = write("Left.java", content);
+		File right = write("Right.java", content);
+		assertTrue(io.sameContent(left, right));
+		content[content.length - 1] = '!';
+		right = write("Right.java", content);
+		assertFalse(io.sameContent(left, right));
+		assertFalse(io.sameContent(left, new File(root, "Missing.java")));
+	}
+
+	/*
+	 * Reads, decodes and encodes the same files both ways and compares the bytes allocated by this thread.
+	 */
+	@Test
+	public void testAllocatesLessThanReadingWholeFiles() throws IOException {
+		final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+		final File[] files = new File[50];
+		final String source = FileUtils.readFileToString(new File("src/test/resources/codegen/TestObject.java"),
+				"UTF-8");
+		for (int i = 0; i < files.length; i++) {
+			files[i] = write("File" + i + ".java", source.getBytes(UTF_8));
+		}
+		final SourceIO io = new SourceIO(UTF_8);
+		long plain = 0;
+		long pooled = 0;
+		for (int round = 0; round < 3; round++) {
+			final long start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			for (File file : files) {
+				final String content = new String(Files.readAllBytes(file.toPath()), UTF_8);
+				assertEquals(source.length(), content.getBytes(UTF_8).length);
+			}
+			final long middle = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+			for (File file : files) {
+				final String content = io.decode(io.read(file));
+				assertEquals(source.length(), io.encode(content).remaining());
+			}
+			plain = middle - start;
+			pooled = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - middle;
+		}
+		assertTrue("pooled " + pooled + " bytes, plain " + plain + " bytes", pooled < plain);
+	}
+
+	private void assertRoundTrip(final Charset charset, final String content) throws IOException {
+		File file = write("RoundTrip.java", content.getBytes(charset));
+		SourceIO io = new SourceIO(charset);
+		assertEquals(content, io.decode(io.read(file)));
+		ByteBuffer encoded = io.encode(content);
+		File copy = new File(root, "Copy.java");
+		assertTrue(copy.createNewFile() || copy.exists());
+		SourceIO.write(copy.toPath(), encoded);
+		assertEquals(content, new String(Files.readAllBytes(copy.toPath()), charset));
+		assertTrue(io.hasContent(file, encoded));
+	}
+
+	private File write(final String name, final byte[] content) throws IOException {
+		File file = new File(root, name);
+		FileUtils.writeByteArrayToFile(file, content);
+		return file;
+	}
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SourceInternerTest {
+
+	private final SourceInterner interner = new SourceInterner();
+
+	@Test
+	public void testEqualListsAreShared() {
+		final List<String> first = interner.sources(Arrays.asList("@NotNull", "@XmlTransient"));
+		final List<String> second = interner.sources(new ArrayList<String>(Arrays.asList("@NotNull", "@XmlTransient")));
+		assertSame(first, second);
+		assertEquals(Arrays.asList("@NotNull", "@XmlTransient"), first);
+	}
+
+	@Test
+	public void testKeysAreShared() {
+		final String key = interner.key("codegen.TestClass");
+		assertSame(key, interner.key(new String("codegen.TestClass")));
+	}
+
+	@Test
+	public void testListsShareTheirAnnotations() {
+		final List<String> first = interner.sources(Arrays.asList(new String("@NotNull")));
+		final List<String> second = interner.sources(Arrays.asList(new String("@NotNull"), "@XmlTransient"));
+		assertSame(first.get(0), second.get(0));
+	}
+}
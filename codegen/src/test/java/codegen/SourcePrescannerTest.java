@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.github.javaparser.ast.expr.AnnotationExpr;
+
+public class SourcePrescannerTest {
+
+	private final SourcePrescanner prescanner = new SourcePrescanner(
+			config(Charset.forName("UTF-8"), "a.b.Configured", "a.b.Outer.Inner"));
+
+	@Test
+	public void testConfiguredType() {
+		assertTrue(scan("package a.b;\r\n\r\npublic class Configured {\r\n}\r\n"));
+	}
+
+	@Test
+	public void testUnconfiguredType() {
+		assertFalse(scan("package a.b;\n\nimport a.b.Configured;\n\npublic class Other extends Configured {\n"
+				+ "\tclass Configured {}\n}\n"));
+	}
+
+	@Test
+	public void testOuterTypeOfConfiguredNestedType() {
+		assertTrue(scan("package a.b;\npublic class Outer {\n\tpublic static class Inner {}\n}\n"));
+	}
+
+	@Test
+	public void testSamePackageNameInOtherPackage() {
+		assertFalse(scan("package a.c;\npublic enum Configured {\n\tA, B;\n}\n"));
+	}
+
+	@Test
+	public void testCommentsAndLiteralsAreSkipped() {
+		assertFalse(scan("// class Configured\npackage /* x */ a . b;\n/**\n * class Configured\n */\n"
+				+ "@XmlSeeAlso({Configured.class})\n@Name(\"class Configured\")\npublic class Other {\n"
+				+ "\tchar c = '\"';\n\tString s = \"}\\\"class Configured\";\n}\n"));
+	}
+
+	@Test
+	public void testUnsureInputIsScanned() {
+		assertTrue(scan("public class Configured {\n}\n"));
+		assertTrue(scan("package a.b;\nclass Other {}\nclass Another {}\n"));
+		assertTrue(scan("package a.b;\nclass \\u0041 {}\n"));
+		assertTrue(scan("package a.b;\n/* class Other {}\n"));
+		assertTrue(scan("package a.b;\nclass Other {\n"));
+		assertTrue(scan("package a.b;\n@interface"));
+	}
+
+	@Test
+	public void testNonAsciiCompatibleEncodingIsAlwaysScanned() {
+		final SourcePrescanner utf16 = new SourcePrescanner(config(Charset.forName("UTF-16"), "a.b.Configured"));
+		assertTrue(utf16.mayDeclareConfiguredType("package a.b;\nclass Other {}\n".getBytes(Charset.forName("UTF-16"))));
+	}
+
+	@Test
+	public void testDirectBuffersAreScanned() {
+		final byte[] configured = "package a.b;\npublic class Configured {}\n".getBytes(Charset.forName("UTF-8"));
+		final byte[] other = "package a.b;\npublic class Other {}\n".getBytes(Charset.forName("UTF-8"));
+		final ByteBuffer direct = ByteBuffer.allocateDirect(configured.length + other.length);
+		direct.put(configured).put(other).flip();
+		direct.position(configured.length);
+		assertFalse(prescanner.mayDeclareConfiguredType(direct));
+		assertEquals(configured.length, direct.position());
+		direct.position(0).limit(configured.length);
+		assertTrue(prescanner.mayDeclareConfiguredType(direct));
+	}
+
+	private boolean scan(final String source) {
+		return prescanner.mayDeclareConfiguredType(source.getBytes(Charset.forName("UTF-8")));
+	}
+
+	private static InternalConfiguration config(final Charset encoding, final String... names) {
+		final Map<String, InternalConfiguration.ClazzContainer> classes = new HashMap<String, InternalConfiguration.ClazzContainer>();
+		final Map<String, List<AnnotationExpr>> none = Collections.emptyMap();
+		for (String name : names) {
+			classes.put(name,
+					new InternalConfiguration.ClazzContainer(Collections.<AnnotationExpr> emptyList(), none, none));
+		}
+		return new InternalConfiguration(classes, encoding);
+	}
+}
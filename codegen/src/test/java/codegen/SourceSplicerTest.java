@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseException;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.expr.AnnotationExpr;
+
+public class SourceSplicerTest {
+
+	@Test
+	public void testInsertInFrontOfDeclaration() throws ParseException {
+		String source = "package test;\r\n\r\n/** doc */\r\npublic class TestClass {\r\n"
+				+ "\t// field\r\n\tprotected   String  field;\r\n}\r\n";
+		String expected = "package test;\r\n\r\n/** doc */\r\n@ClassAnnotation\r\npublic class TestClass {\r\n"
+				+ "\t// field\r\n\t@FieldAnnotation\r\n\tprotected   String  field;\r\n}\r\n";
+		assertEquals(expected, splice(source, "@ClassAnnotation", "@FieldAnnotation"));
+	}
+
+	@Test
+	public void testInsertAfterKeptAnnotations() throws ParseException {
+		String source = "package test;\n@Kept(a = 1,\n      b = 2)\npublic class TestClass {\n"
+				+ "    @Kept protected String field;\n}\n";
+		String expected = "package test;\n@Kept(a = 1,\n      b = 2)\n@ClassAnnotation\npublic class TestClass {\n"
+				+ "    @Kept @FieldAnnotation protected String field;\n}\n";
+		assertEquals(expected, splice(source, "@ClassAnnotation", "@FieldAnnotation"));
+	}
+
+	@Test
+	public void testReplaceExistingAnnotation() throws ParseException {
+		String source = "package test;\n@ClassAnnotation(\"old\")\n@Kept\npublic class TestClass {\n"
+				+ "\t@FieldAnnotation(2)\t@Kept\n\tprotected String field;\n}\n";
+		String expected = "package test;\n@Kept\n@ClassAnnotation\npublic class TestClass {\n"
+				+ "\t@Kept\n\t@FieldAnnotation\n\tprotected String field;\n}\n";
+		assertEquals(expected, splice(source, "@ClassAnnotation", "@FieldAnnotation"));
+	}
+
+	@Test
+	public void testReplaceOnlyAnnotation() throws ParseException {
+		String source = "package test;\npublic class TestClass {\n\n\t@FieldAnnotation(1)\n\n\tString field;\n}\n";
+		String expected = "package test;\n@Unused\npublic class TestClass {\n\n\t@FieldAnnotation\n\t\n\tString field;\n}\n";
+		assertEquals(expected, splice(source, "@Unused", "@FieldAnnotation"));
+	}
+
+	@Test
+	public void testUnicodeEscapesAreNotSpliced() throws ParseException {
+		String source = "package test;\npublic class TestClass {\n\tString field = \"\\u0041\";\n}\n";
+		assertNull(splice(source, "@ClassAnnotation", "@FieldAnnotation"));
+	}
+
+	private String splice(String source, String classAnnotation, String fieldAnnotation) throws ParseException {
+		List<AnnotationExpr> classAnnotations = new ArrayList<AnnotationExpr>();
+		classAnnotations.add(JavaParser.parseAnnotation(classAnnotation));
+		Map<String, List<AnnotationExpr>> fieldAnnotations = new HashMap<String, List<AnnotationExpr>>();
+		List<AnnotationExpr> annotations = new ArrayList<AnnotationExpr>();
+		annotations.add(JavaParser.parseAnnotation(fieldAnnotation));
+		fieldAnnotations.put("field", annotations);
+		Map<String, InternalConfiguration.ClazzContainer> map = new HashMap<String, InternalConfiguration.ClazzContainer>();
+		map.put("test.TestClass", new InternalConfiguration.ClazzContainer(classAnnotations, fieldAnnotations,
+				new HashMap<String, List<AnnotationExpr>>()));
+
+		CompilationUnit cu = JavaParser.parse(new StringReader(source), true);
+		ClassAnnotationVisitor visitor = new ClassAnnotationVisitor(new InternalConfiguration(map));
+		visitor.visit(cu, null);
+		assertTrue(visitor.hasChanged());
+		String spliced = visitor.getSplicer().apply(source);
+		if (spliced != null) {
+			assertEquals(cu.toString(), JavaParser.parse(new StringReader(spliced), true).toString());
+		}
+		return spliced;
+	}
+}
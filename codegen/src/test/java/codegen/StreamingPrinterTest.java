@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseException;
+import com.github.javaparser.ast.CompilationUnit;
+
+public class StreamingPrinterTest {
+
+	@Test
+	public void testPrintsLikeToString() throws IOException, ParseException {
+		for (String name : new String[] { "TestClass.java", "TestObject.java", "NestedTestClass.java" }) {
+			CompilationUnit cu = JavaParser.parse(new File("src/test/resources/codegen/" + name));
+			StringWriter out = new StringWriter();
+			StreamingPrinter.print(cu, out);
+			assertEquals(name, cu.toString(), out.toString());
+		}
+	}
+
+	@Test
+	public void testLinesAreHandedOverOneByOne() throws IOException, ParseException {
+		CompilationUnit cu = JavaParser.parse(new File("src/test/resources/codegen/NestedTestClass.java"));
+		final List<String> lines = new ArrayList<String>();
+		StreamingPrinter.print(cu, new Writer() {
+			@Override
+			public void write(char[] cbuf, int off, int len) {
+				lines.add(new String(cbuf, off, len));
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+		StringBuilder printed = new StringBuilder();
+		for (String line : lines) {
+			assertEquals(line, 1, line.split(System.getProperty("line.separator"), -1).length - 1);
+			printed.append(line);
+		}
+		assertEquals(cu.toString(), printed.toString());
+	}
+
+	@Test(expected = IOException.class)
+	public void testWriterFailureIsThrown() throws IOException, ParseException {
+		CompilationUnit cu = JavaParser.parse(new File("src/test/resources/codegen/TestClass.java"));
+		StreamingPrinter.print(cu, new Writer() {
+			@Override
+			public void write(char[] cbuf, int off, int len) throws IOException {
+				throw new IOException("disk full");
+			}
+
+			@Override
+			public void flush() {
+			}
+
+			@Override
+			public void close() {
+			}
+		});
+	}
+
+	@Test
+	public void testReprintIsStreamedAndOnlyWrittenWhenDifferent() throws IOException, ParseException {
+		File targetFile = new File("target/test/streaming/TestObject.java").getAbsoluteFile();
+		FileUtils.copyFile(new File("src/test/resources/codegen/TestObject.java"), targetFile);
+		CodeGenerator cg = new CodeGenerator(new File("src/test/resources/codegen/cfg_severalannotationsbug.json"));
+		cg.setWriteMode(WriteMode.REPRINT);
+		assertTrue(cg.parse(targetFile));
+		String printed = FileUtils.readFileToString(targetFile, "UTF-8");
+		assertEquals(JavaParser.parse(targetFile).toString(), printed);
+
+		assertTrue(targetFile.setLastModified(1000L));
+		assertFalse(cg.parse(targetFile));
+		assertEquals(1000L, targetFile.lastModified());
+		for (File file : targetFile.getParentFile().listFiles()) {
+			assertFalse(file.getName(), file.getName().endsWith(".tmp"));
+		}
+	}
+}
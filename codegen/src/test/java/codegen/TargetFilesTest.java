@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TargetFilesTest {
+
+	private final File root = new File("target/test/targets").getAbsoluteFile();
+
+	@Before
+	public void setup() throws IOException {
+		FileUtils.deleteDirectory(root);
+	}
+
+	@Test
+	public void testResolvesConfiguredNames() throws IOException {
+		final File outer = touch("a/b/Outer.java");
+		final File configured = touch("a/b/Configured.java");
+		touch("a/b/Unconfigured.java");
+
+		final TargetFiles targets = TargetFiles.resolve(
+				Arrays.asList("a.b.Outer.Inner", "a.b.Missing", "a.b.Configured", "a.b.Outer"), root);
+
+		assertEquals(Arrays.asList(configured, outer), targets.getFiles());
+		assertEquals(Collections.singletonList("a.b.Missing"), targets.getMissing());
+	}
+
+	@Test
+	public void testLongestNameWins() throws IOException {
+		touch("a/b/Outer.java");
+		final File inner = touch("a/b/Outer/Inner.java");
+
+		final TargetFiles targets = TargetFiles.resolve(Collections.singletonList("a.b.Outer.Inner"), root);
+
+		assertEquals(Collections.singletonList(inner), targets.getFiles());
+	}
+
+	@Test
+	public void testGeneratorFindsNestedConfiguration() throws Exception {
+		final File nested = new File(root, "codegen/NestedTestClass.java");
+		FileUtils.copyFile(new File("src/test/resources/codegen/NestedTestClass.java"), nested);
+
+		final TargetFiles targets = new CodeGenerator(new File("src/test/resources/codegen/cfgnested.json"))
+				.findTargets(root);
+
+		assertEquals(Collections.singletonList(nested), targets.getFiles());
+		assertEquals(Collections.emptyList(), targets.getMissing());
+	}
+
+	private File touch(final String path) throws IOException {
+		final File file = new File(root, path);
+		FileUtils.writeStringToFile(file, "", "UTF-8");
+		return file;
+	}
+}
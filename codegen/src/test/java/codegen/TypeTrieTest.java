@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 Henrik Hegardt
+ *
+ *Licensed under the Apache License, Version 2.0 (the "License");
+ *you may not use this file except in compliance with the License.
+ *You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *Unless required by applicable law or agreed to in writing, software
+ *distributed under the License is distributed on an "AS IS" BASIS,
+ *WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *See the License for the specific language governing permissions and
+ *limitations under the License.
+*/
+package codegen;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.github.javaparser.ast.expr.AnnotationExpr;
+
+import codegen.InternalConfiguration.ClazzContainer;
+
+public class TypeTrieTest {
+
+	private final Map<String, List<AnnotationExpr>> none = Collections.emptyMap();
+	private final ClazzContainer outer = new ClazzContainer(Collections.<AnnotationExpr> emptyList(), none, none);
+	private final ClazzContainer inner = new ClazzContainer(Collections.<AnnotationExpr> emptyList(), none, none);
+
+	@Test
+	public void testPathToConfiguredNames() {
+		final TypeTrie root = trie();
+
+		assertNotNull(root.find("a"));
+		assertNull(root.find("a.b").getClazz());
+		assertSame(outer, root.find("a.b.Outer").getClazz());
+		assertSame(inner, root.find("a.b.Outer").child("Inner").getClazz());
+		assertSame(inner, root.find("a.b").child("Outer").child("Inner").getClazz());
+	}
+
+	@Test
+	public void testNothingConfiguredBelow() {
+		final TypeTrie root = trie();
+
+		assertNull(root.find("a.c"));
+		assertNull(root.find("a.b.Other"));
+		assertNull(root.find("a.b.Outer.Inner.Deeper"));
+		assertNull(root.find("a.b.Outer").child("Other"));
+		assertNull(root.find(""));
+	}
+
+	private TypeTrie trie() {
+		final Map<String, ClazzContainer> classes = new HashMap<String, ClazzContainer>();
+		classes.put("a.b.Outer", outer);
+		classes.put("a.b.Outer.Inner", inner);
+		return TypeTrie.build(classes);
+	}
+}